@@ -0,0 +1,36 @@
+package synthExperiments;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Signal.convolve(): signal length x kernel length.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ConvolveBenchmark {
+
+	@Param({"48000", "480000"})
+	public int n;
+
+	@Param({"16", "64", "256", "1024"})
+	public int m;
+
+	private Signal s, h;
+
+	@Setup
+	public void setup() {
+		s = Noise.signal(n);
+		h = Noise.signal(m);
+	}
+
+	@Benchmark
+	public Signal convolve() {
+		return s.convolve(h);
+	}
+}
@@ -0,0 +1,32 @@
+package synthExperiments;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Signal.fft() over powers of two and one size that isn't (1000).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class FFTBenchmark {
+
+	@Param({"256", "1024", "1000", "4096", "65536", "1048576"})
+	public int n;
+
+	private Signal s;
+
+	@Setup
+	public void setup() {
+		s = Noise.signal(n);
+	}
+
+	@Benchmark
+	public Signal fft() {
+		return s.fft();
+	}
+}
@@ -0,0 +1,37 @@
+package synthExperiments;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * LinearFilter.filter(): signal length x taps.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class FilterBenchmark {
+
+	@Param({"48000", "480000"})
+	public int n;
+
+	@Param({"31", "255", "1023"})
+	public int taps;
+
+	private Signal s;
+	private LinearFilter f;
+
+	@Setup
+	public void setup() {
+		s = Noise.signal(n);
+		f = new HighpassFilter(500, taps, 1.0, Noise.SAMPLE_RATE);
+	}
+
+	@Benchmark
+	public Signal filter() throws Exception {
+		return f.filter(s);
+	}
+}
@@ -0,0 +1,92 @@
+package synthExperiments;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Signal's element-wise operations and reductions, with the vectorized and the scalar
+ * kernels (see SampleKernels), signal length x kernel version.
+ *
+ * Operations repeated on the same signal keep its magnitude (no overflow, no subnormal
+ * numbers, which would make the timings meaningless): add() adds and subtracts, the others
+ * multiply by signs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class KernelsBenchmark {
+
+	@Param({"4096", "1048576"})
+	public int n;
+
+	@Param({"true", "false"})
+	public boolean vectorized;
+
+	private Signal s, t, minusT, signs, h;
+
+	@Setup
+	public void setup() {
+		SampleKernels.setVectorized(vectorized);
+		if(SampleKernels.isVectorized() != vectorized)
+			throw new IllegalStateException("Vector API not available");
+
+		s = Noise.signal(n);
+		t = Noise.signal(n);
+		minusT = t.clone();
+		minusT.scalarMultiply(-1.0);
+		h = Noise.signal(32);
+
+		signs = Noise.signal(n);
+		for(int i = 0; i < n; i++)
+			signs.table[i] = Math.signum(signs.table[i]);
+	}
+
+	@Benchmark
+	public double add() {
+		s.add(t);
+		s.add(minusT);
+		return s.at(0);
+	}
+
+	@Benchmark
+	public double multiplyElements() {
+		s.multiplyElements(signs);
+		return s.at(0);
+	}
+
+	@Benchmark
+	public double scalarMultiply() {
+		s.scalarMultiply(-1.0);
+		return s.at(0);
+	}
+
+	@Benchmark
+	public double normalize() {
+		s.normalize();
+		return s.at(0);
+	}
+
+	@Benchmark
+	public double max() {
+		return s.max();
+	}
+
+	@Benchmark
+	public double mean() {
+		return s.mean();
+	}
+
+	@Benchmark
+	public double stdDev() {
+		return s.stdDev();
+	}
+
+	@Benchmark
+	public Signal convolve() {
+		return s.convolve(h);
+	}
+}
@@ -0,0 +1,19 @@
+package synthExperiments;
+
+/**
+ * Inputs for the benchmarks.
+ */
+class Noise {
+
+	static final int SAMPLE_RATE = 48000;
+
+	/**
+	 * N samples of white noise in [-1, 1).
+	 */
+	static Signal signal(int n) {
+		double[] x = new double[n];
+		for(int i = 0; i < n; i++)
+			x[i] = 2 * Math.random() - 1;
+		return new Signal(x, n, SAMPLE_RATE);
+	}
+}
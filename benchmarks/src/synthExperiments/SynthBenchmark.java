@@ -0,0 +1,47 @@
+package synthExperiments;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Synthesizer.generate(): a sine (computed and from a wavetable) and a square wave,
+ * SECONDS long.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class SynthBenchmark {
+
+	@Param({"1", "10"})
+	public double seconds;
+
+	private SineSynth sine, table;
+	private SquareSynth square;
+
+	@Setup
+	public void setup() {
+		sine = new SineSynth(Noise.SAMPLE_RATE);
+		table = new SineSynth(Noise.SAMPLE_RATE);
+		table.setInterpolation(Wavetable.Interpolation.LINEAR);
+		square = new SquareSynth(Noise.SAMPLE_RATE);
+	}
+
+	@Benchmark
+	public Signal sine() throws Exception {
+		return sine.generate(seconds, 440);
+	}
+
+	@Benchmark
+	public Signal sineLinear() throws Exception {
+		return table.generate(seconds, 440);
+	}
+
+	@Benchmark
+	public Signal square() throws Exception {
+		return square.generate(seconds, 440);
+	}
+}
@@ -0,0 +1,56 @@
+package synthExperiments;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Writing a wave file: streamed (Signal.writeToWAVE()) and buffered (WAVEWriter.addSample()
+ * and writeWAVE()), signal length x SampleSize (every size, by default).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class WAVEBenchmark {
+
+	@Param({"48000", "480000"})
+	public int n;
+
+	@Param
+	public SampleSize size;
+
+	private Signal s;
+	private File file;
+
+	@Setup
+	public void setup() throws IOException {
+		s = Noise.signal(n);
+		s.scalarMultiply(0.9);
+		file = File.createTempFile("benchmark", ".wav");
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Benchmark
+	public long writeToWAVE() {
+		s.writeToWAVE(file.getPath(), size);
+		return file.length();
+	}
+
+	@Benchmark
+	public long writeWAVE() throws Exception {
+		WAVEWriter w = new WAVEWriter(Noise.SAMPLE_RATE, size, 1);
+		for(int i = 0; i < n; i++)
+			w.addSample(s.at(i));
+		w.writeWAVE(file.getPath());
+		return file.length();
+	}
+}
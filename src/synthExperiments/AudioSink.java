@@ -0,0 +1,32 @@
+package synthExperiments;
+
+import java.io.IOException;
+
+/**
+ * Where RenderLoop sends the blocks it renders: a sound card, a file or nowhere at all.
+ * A sink for a real device blocks in write() until there's room in its buffer, which is
+ * what paces the loop.
+ */
+public interface AudioSink extends AutoCloseable {
+
+	/**
+	 * Prepares the sink for mono samples.
+	 * @param sampleRate Sample rate of the blocks
+	 * @param blockSize Number of samples in each write() call
+	 */
+	public void open(int sampleRate, int blockSize) throws Exception;
+
+	/**
+	 * Sends LEN samples of BLOCK, starting at OFF. Samples are in range [-1,1].
+	 */
+	public void write(double[] block, int off, int len) throws Exception;
+
+	/**
+	 * Number of times the sink ran out of samples to play since open(). Sinks that
+	 * aren't consumed in real time never underrun.
+	 */
+	public default long getUnderruns() { return 0; }
+
+	@Override
+	public void close() throws IOException;
+}
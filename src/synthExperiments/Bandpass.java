@@ -1,5 +1,7 @@
 package synthExperiments;
 
+import java.util.Arrays;
+
 public class Bandpass extends LinearFilter {
 
 	/**
@@ -12,7 +14,7 @@ public class Bandpass extends LinearFilter {
 	//--------------------------- Access methods -----------------------------------------	
 	//------------------------------------------------------------------------------------
 	public double 	getCutoffSup() 			{ return cutoffSup; }
-	public void 	setCutoffSup(double d) 	{ this.cutoffSup = d; }
+	public synchronized void setCutoffSup(double d) { this.cutoffSup = d; invalidate(); }
 	
 	public double 	getCutoffInf()			{ return getCutoff() ; }
 	public void		setCutoffInf(double d)	{ setCutoff(d); }
@@ -41,14 +43,54 @@ public class Bandpass extends LinearFilter {
 		super.calcFrequencyResponse();
 	}
 	
+	/**
+	 * Superior cutoff is a design parameter too
+	 */
+	@Override
+	protected double[] designParameters() {
+		double[] p = super.designParameters();
+		double[] q = Arrays.copyOf(p, p.length + 1);
+		q[p.length] = cutoffSup;
+		return q;
+	}
+	
 	/**
 	 * We override this method just to add extra security "clauses"
 	 */
 	@Override
-	public Signal filter(Signal s) throws Exception {
+	protected void checkParameters() throws Exception {
 		if(cutoffSup < 0.0)
 			throw new Exception("Bad value for superior cutoff frequency (< 0.0 )");
-		return super.filter(s);
+		super.checkParameters();
+	}
+	
+	/**
+	 * Starts a batch of parameter changes, the superior cutoff included. Example:
+	 * filter.edit().cutoff(300).cutoffSup(3400).filterLength(128).apply();
+	 */
+	@Override
+	public Edit edit() {
+		return new Edit();
+	}
+	
+	/**
+	 * LinearFilter.Edit with the superior cutoff.
+	 */
+	public class Edit extends LinearFilter.Edit {
+		private double cutoffSup = Bandpass.this.cutoffSup;
+		
+		public Edit cutoffSup(double d) 	{ if(d >= 0.0) cutoffSup = d; return this; }
+		
+		@Override public Edit cutoff(double c) 		{ super.cutoff(c); return this; }
+		@Override public Edit filterLength(int N) 	{ super.filterLength(N); return this; }
+		@Override public Edit gain(double g) 		{ super.gain(g); return this; }
+		@Override public Edit sampleRate(int s) 	{ super.sampleRate(s); return this; }
+		
+		@Override
+		protected void set() {
+			super.set();
+			Bandpass.this.cutoffSup = cutoffSup;
+		}
 	}
 	
 	public static void main(String[] args) {
@@ -0,0 +1,153 @@
+package synthExperiments;
+
+/**
+ * Biquad sections in series: the output of each one feeds the next. Used to build responses
+ * steeper than a single section can give, such as Butterworth filters of any order, at a
+ * cost of about 9 flops per section per sample.
+ */
+public class BiquadCascade implements BlockProcessor {
+
+	private final Biquad[] sections;
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Constructors -------------------------------------------
+	//------------------------------------------------------------------------------------
+	public BiquadCascade(Biquad... sections) {
+		if(sections.length == 0)
+			throw new IllegalArgumentException("A cascade needs at least one section");
+		this.sections = sections.clone();
+	}
+
+	/**
+	 * Butterworth lowpass (maximally flat passband, -3 dB at cutoff) of the given order:
+	 * order/2 biquads, plus a first order section if the order is odd. The response falls
+	 * 6.order dB per octave past the cutoff.
+	 * @param gain Linear gain of the passband
+	 */
+	public static BiquadCascade butterworthLowpass(int order, double cutoff, double gain, int sampleRate) {
+		return butterworth(order, cutoff, gain, sampleRate, false);
+	}
+
+	/**
+	 * Butterworth highpass of the given order. See butterworthLowpass().
+	 */
+	public static BiquadCascade butterworthHighpass(int order, double cutoff, double gain, int sampleRate) {
+		return butterworth(order, cutoff, gain, sampleRate, true);
+	}
+
+	private static BiquadCascade butterworth(int order, double cutoff, double gain, int sampleRate, boolean high) {
+		if(order < 1)
+			throw new IllegalArgumentException("Order must be at least 1");
+
+		Biquad.Type type = high ? Biquad.Type.HIGHPASS : Biquad.Type.LOWPASS;
+		Biquad[] sections = new Biquad[(order + 1) / 2];
+		int s = 0;
+
+		//Poles come in conjugate pairs at angles theta from the negative real axis;
+		//each pair is a biquad with Q = 1 / (2.cos(theta)). Gain goes in the first section.
+		for(int k = 0; k < order / 2; k++) {
+			double theta = (order % 2 == 0) ? Math.PI * (2 * k + 1) / (2 * order) : Math.PI * (k + 1) / order;
+			double q = 1.0 / (2 * Math.cos(theta));
+			sections[s++] = new Biquad(type, cutoff, q, k == 0 ? gain : 1.0, sampleRate);
+		}
+
+		//Odd order: the real pole, as a first order section (bilinear, prewarped)
+		if(order % 2 == 1) {
+			if(cutoff <= 0 || 2 * cutoff >= sampleRate)
+				throw new IllegalArgumentException("Cutoff frequency must be in range (0, sampleRate/2)");
+
+			double K = Math.tan(Math.PI * cutoff / sampleRate);
+			double g = (s == 0) ? gain : 1.0;
+			double a1 = (K - 1) / (K + 1);
+			double b0 = (high ? 1 : K) / (K + 1) * g;
+			sections[s] = new Biquad(b0, high ? -b0 : b0, 0.0, a1, 0.0, sampleRate);
+		}
+
+		return new BiquadCascade(sections);
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Access methods -----------------------------------------
+	//------------------------------------------------------------------------------------
+	public int getNumSections() 		{ return sections.length; }
+	public Biquad getSection(int i) 	{ return sections[i]; }
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Operations ---------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * Returns a new signal with S filtered by every section, from a silent state. The state
+	 * used by process() isn't touched.
+	 */
+	public Signal filter(Signal s) {
+		Signal out = s;
+		for(Biquad b: sections)
+			out = b.filter(out);
+		return out;
+	}
+
+	/**
+	 * Filters N samples from IN to OUT (which may be the same array), continuing from
+	 * where the last call stopped.
+	 */
+	@Override
+	public void process(double[] in, double[] out, int n) {
+		sections[0].process(in, out, n);
+		for(int i = 1; i < sections.length; i++)
+			sections[i].process(out, out, n);
+	}
+
+	public void reset() {
+		for(Biquad b: sections)
+			b.reset();
+	}
+
+	public double magnitudeAt(double freq) {
+		double m = 1.0;
+		for(Biquad b: sections)
+			m *= b.magnitudeAt(freq);
+		return m;
+	}
+
+	/**
+	 * Test driver: 8th order Butterworth highpass against a FIR HighpassFilter with
+	 * the same cutoff, streaming the same noise in blocks of 256 samples.
+	 */
+	public static void main(String[] args) throws Exception {
+		int sampleRate = 48000, cutoff = 1000, n = 10 * sampleRate, block = 256;
+
+		double[] noise = new double[n], out = new double[block];
+		for(int i = 0; i < n; i++)
+			noise[i] = 2 * Math.random() - 1;
+
+		for(int order: new int[] {3, 8}) {
+			BiquadCascade iir = butterworthHighpass(order, cutoff, 1.0, sampleRate);
+			StringBuilder sb = new StringBuilder("Butterworth order " + order + ":");
+			for(double f: new double[] {250, 500, 1000, 2000, 4000})
+				sb.append(String.format(" %.0f Hz %.1f dB,", f, 20 * Math.log10(iir.magnitudeAt(f))));
+			System.out.println(sb);
+		}
+
+		BiquadCascade iir = butterworthHighpass(8, cutoff, 1.0, sampleRate);
+		HighpassFilter fir = new HighpassFilter(cutoff, 255, 1.0, sampleRate);
+		double[] in = new double[block];
+
+		for(int pass = 0; pass < 2; pass++) {
+			long t0 = System.nanoTime();
+			for(int i = 0; i + block <= n; i += block) {
+				System.arraycopy(noise, i, in, 0, block);
+				iir.process(in, out, block);
+			}
+			long t1 = System.nanoTime();
+			for(int i = 0; i + block <= n; i += block) {
+				System.arraycopy(noise, i, in, 0, block);
+				fir.process(in, out, block);
+			}
+			long t2 = System.nanoTime();
+
+			System.out.println("10 s of audio: IIR (4 biquads) " + (t1 - t0) / 1e6 + " ms, FIR (255 taps) "
+					+ (t2 - t1) / 1e6 + " ms");
+		}
+	}
+}
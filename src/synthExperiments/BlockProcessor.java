@@ -0,0 +1,13 @@
+package synthExperiments;
+
+/**
+ * Anything that transforms audio block by block, keeping its state between calls
+ * (the delay line of a filter, for example). Used by RenderLoop.
+ */
+public interface BlockProcessor {
+
+	/**
+	 * Processes the next N samples of IN to OUT. OUT may be the same array as IN.
+	 */
+	public void process(double[] in, double[] out, int n) throws Exception;
+}
@@ -0,0 +1,13 @@
+package synthExperiments;
+
+/**
+ * Anything that produces audio block by block: synthesizers, the polyphonic engine...
+ * Each call continues where the last one stopped. Used by RenderLoop.
+ */
+public interface BlockSource {
+
+	/**
+	 * Renders the next LEN samples in OUT, starting at position OFF.
+	 */
+	public void render(double[] out, int off, int len) throws Exception;
+}
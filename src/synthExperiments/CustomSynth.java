@@ -25,17 +25,57 @@ public class CustomSynth extends Synthesizer {
 		//for(int i = 0; i < freq; i++) waveform[i] = 0.0;
 	}
 	
+	/**
+	 * One cycle of the waveform. Subclasses may assign another array; the wavetable is
+	 * rebuilt from it the next time samples are rendered. Changing its samples in place
+	 * isn't noticed: call setWaveform() for that.
+	 */
 	protected double[] waveform;
 	
+	/**
+	 * WAVEFORM as a wavetable, read by render() with INTERPOLATION, and the array it was
+	 * built from.
+	 */
+	private Wavetable 	wavetable;
+	private double[] 	wavetableSource;
+	
+	/**
+	 * NEAREST by default: the sample s() takes, as this synth always did. LINEAR or CUBIC
+	 * sound smoother.
+	 */
+	private Wavetable.Interpolation interpolation = Wavetable.Interpolation.NEAREST;
+	
+	public Wavetable.Interpolation getInterpolation() 			{ return interpolation; }
+	public void setInterpolation(Wavetable.Interpolation mode) 	{ this.interpolation = mode; }
+	
+	/**
+	 * Replaces the waveform: one cycle, of any length. Use this instead of writing to
+	 * WAVEFORM, so the wavetable is rebuilt.
+	 */
+	public void setWaveform(double[] cycle) {
+		this.waveform = cycle.clone();
+		this.wavetable = null;
+	}
+	
 	/**
 	 * Frequencies which are too low compared to sampling frequency
 	 * makes us use interpolation to have more precision.
-	 * TODO: INTERPOLATE STUFF
+	 * This one takes the nearest sample; generate() and render() go through
+	 * the wavetable, which can interpolate (see setInterpolation()).
 	 */
 	@Override
 	protected double s(double t) {
 		int pos = (int)Math.round(t) % samplingFreq;
 		return waveform[ pos ];
 	}
+	
+	@Override
+	protected double renderBlock(double[] out, int off, int len, double phase, double increment) {
+		if(wavetable == null || wavetableSource != waveform) {
+			wavetable = new Wavetable(waveform);
+			wavetableSource = waveform;
+		}
+		return wavetable.renderBlock(out, off, len, phase, increment, interpolation);
+	}
 
 }
@@ -31,6 +31,19 @@ public class DSPMath {
 		
 		return new Signal(window);
 	}
+	
+	/**
+	 * Periodic Hann window: overlapping copies spaced size/2 or size/4 apart add up to a constant.
+	 */
+	public static Signal hannWindow(int size) {
+		
+		double[] window = new double[size];
+		
+		for(int i = 0; i < size; i++)
+			window[i] = 0.5 - 0.5 * Math.cos( 2.0 * Math.PI * i / size);
+		
+		return new Signal(window);
+	}
 		
 	public static void main(String[] args) {
 		
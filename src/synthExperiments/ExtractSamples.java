@@ -1,16 +1,50 @@
 package synthExperiments;
 
 import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 public class ExtractSamples {
 
+	/**
+	 * What to do with samples out of range [-1,1]: clip them to the range or
+	 * refuse them with an exception.
+	 */
+	public enum ClipPolicy { CLIP, FAIL }
+	
 	private SampleSize 	sizeInBytes;
+	private ClipPolicy 	policy;
+	
+	/**
+	 * Precomputed encoding constants: value v becomes round((v + bias) * scale), limited to maxValue.
+	 */
+	private final double 	scale, bias;
+	private final long 		maxValue;
 	
 	//------------------------------------------------------------
 	public ExtractSamples(SampleSize sizeInBytes) {
+		this(sizeInBytes, ClipPolicy.FAIL);
+	}
+	
+	public ExtractSamples(SampleSize sizeInBytes, ClipPolicy policy) {
 		this.sizeInBytes = sizeInBytes;
+		this.policy = policy;
+		
+		//Step between two consecutive levels is 2 / 2^bits
+		this.scale = Math.pow(2, sizeInBytes.value*8) / 2.0;
+		
+		//Avoid negative values if we sampling with unsigned 8 bit
+		this.bias = sizeInBytes.signed ? 0.0 : 1.0;
+		
+		//WARNING: this -1 is a "correction" factor. Samples with value maxValue() tend
+		//to suffer signal clipping and procure noise. Taking 1 avoids this.
+		this.maxValue = sizeInBytes.maxValue() - 1;
 	}
 	
+	public SampleSize getSampleSize() 				{ return sizeInBytes; }
+	public ClipPolicy getClipPolicy() 				{ return policy; }
+	public void setClipPolicy(ClipPolicy policy) 	{ this.policy = policy; }
+	
 	private byte[] getBytes(long sampleValue) 
 	{
 		int N = sizeInBytes.value;
@@ -27,33 +61,114 @@ public class ExtractSamples {
 		return valueBytes;
 	}
 	
+	/**
+	 * Quantizes a value according to sample size and clip policy.
+	 */
+	private long quantize(double value) throws Exception
+	{
+		if(value < -1.0 || value > 1.0) {
+			if(policy == ClipPolicy.FAIL)
+				throw new Exception("Sample must be a value between -1 et 1.");
+			value = (value < 0) ? -1.0 : 1.0;
+		}
+		
+		//Prevent overflow
+		long sampleValue = Math.round((value + bias) * scale);
+		return (sampleValue > maxValue) ? maxValue : sampleValue;
+	}
+	
 	/**
 	 * "Converts" floating-point value in range [-1,1] to byte array.
 	 * WARNING: this -1 is a "correction" factor. Samples with value maxValue() tend 
 	 * to suffer signal clipping and procure noise. Taking 1 avoids this.
 	 * @param value Sample value.
 	 * @return byte array with samples in BigEndian format.
-	 * @throws Exception Thrown when sample is not in range -1 <= value <= 1
+	 * @throws Exception Thrown when sample is not in range -1 <= value <= 1 (and policy is FAIL)
 	 */
 	public byte[] sample(double value) throws Exception
 	{
-		if(value < -1.0 || value > 1.0)
-			throw new Exception("Sample must be a value between -1 et 1.");
+		if(sizeInBytes.floating) return getBytes(floatingBits(value));
+		return getBytes(quantize(value));
+	}
+	
+	/**
+	 * Bits of a floating point sample: float or double, depending on sample size.
+	 */
+	private long floatingBits(double value)
+	{
+		if(sizeInBytes == SampleSize.F32BIT) return Float.floatToRawIntBits((float)value);
+		return Double.doubleToRawLongBits(value);
+	}
 		
-		//Avoid negative values if we sampling with unsigned 8 bit
-		if(!sizeInBytes.signed)
-			value += 1.0;
+	/**
+	 * Encodes a single sample in DST, in little endian (WAVE) order, whatever DST's order is.
+	 * @throws Exception Thrown when sample is not in range -1 <= value <= 1 (and policy is FAIL)
+	 */
+	public void encode(double value, ByteBuffer dst) throws Exception
+	{
+		put(sizeInBytes.floating ? floatingBits(value) : quantize(value), dst);
+	}
 		
-		double step = 2.0 / Math.pow(2, sizeInBytes.value*8);
-		long sampleValue = (long)Math.round(value/step);
+	/**
+	 * Bulk version of sample(): encodes LEN values of SRC, starting at OFF, straight to DST
+	 * in little endian (WAVE) order. Nothing is allocated.
+	 * @param dst Must have room for len * sample size bytes.
+	 * @throws Exception Thrown when a sample is not in range -1 <= value <= 1 (and policy is FAIL).
+	 * Samples before it are already in DST.
+	 */
+	public void encode(double[] src, int off, int len, ByteBuffer dst) throws Exception
+	{
+		if(sizeInBytes.floating) {
+			for(int i = off; i < off + len; i++)
+				put(floatingBits(src[i]), dst);
+			return;
+		}
 		
-		//Prevent overflow
-		//WARNING: this -1 is a "correction" factor. Samples with value maxValue() tend
-		//to suffer signal clipping and procure noise. Taking 1 avoids this.
-		long maxValue = sizeInBytes.maxValue() - 1;
-		sampleValue = (sampleValue > maxValue) ? maxValue : sampleValue;
+		for(int i = off; i < off + len; i++)
+			put(quantize(src[i]), dst);
+	}
+	
+	/**
+	 * Same as encode(double[], ...), for float samples. With F32BIT, samples are copied
+	 * as they are, with no conversion.
+	 */
+	public void encode(float[] src, int off, int len, ByteBuffer dst) throws Exception
+	{
+		if(sizeInBytes == SampleSize.F32BIT && dst.order() == ByteOrder.LITTLE_ENDIAN) {
+			dst.asFloatBuffer().put(src, off, len);
+			dst.position(dst.position() + 4 * len);
+			return;
+		}
+		
+		for(int i = off; i < off + len; i++)
+			encode(src[i], dst);
+	}
 		
-		return getBytes(sampleValue);
+	/**
+	 * Encodes LEN frames of a planar multichannel signal, starting at frame OFF, interleaving
+	 * them as WAVE files want: s1c1 s1c2 ... s1cN s2c1 s2c2 ... All channels are encoded in
+	 * the same pass and nothing is allocated.
+	 * @param src One table per channel
+	 * @param dst Must have room for len * src.length * sample size bytes.
+	 * @throws Exception Thrown when a sample is not in range -1 <= value <= 1 (and policy is FAIL).
+	 */
+	public void encodeInterleaved(double[][] src, int off, int len, ByteBuffer dst) throws Exception
+	{
+		int nChannels = src.length;
+		for(int i = off; i < off + len; i++)
+			for(int c = 0; c < nChannels; c++)
+				put(sizeInBytes.floating ? floatingBits(src[c][i]) : quantize(src[c][i]), dst);
+	}
+	
+	private void put(long v, ByteBuffer dst)
+	{
+		switch(sizeInBytes.value) {
+			case 1: dst.put((byte)v); break;
+			case 2: dst.put((byte)v).put((byte)(v >> 8)); break;
+			case 3: dst.put((byte)v).put((byte)(v >> 8)).put((byte)(v >> 16)); break;
+			case 8: for(int k = 0; k < 8; k++) dst.put((byte)(v >> 8*k)); break;
+			default: dst.put((byte)v).put((byte)(v >> 8)).put((byte)(v >> 16)).put((byte)(v >> 24));
+		}
 	}
 	
 	/**
@@ -0,0 +1,91 @@
+package synthExperiments;
+
+/**
+ * Complex Fast Fourier Transform working in place over primitive arrays.
+ * Sizes which are powers of two run an iterative radix-2 Cooley-Tukey; any other
+ * size is reduced to a power of two convolution through Bluestein's chirp-z algorithm,
+ * so every size costs O(n log n). The actual work is done by FFTPlan; transforms of a size
+ * that was already used find their plan in cache and compute no trigonometric function.
+ *
+ * Forward transform computes X[k] = sum x[j].exp(-2.pi.i.j.k/n). Inverse transform uses the
+ * opposite sign and divides by n, so inverse(forward(x)) == x.
+ */
+public class FFT {
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Operations ---------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * Transforms the complex sequence (re, im) in place.
+	 * @param re Real parts. Its length is the size of the transform.
+	 * @param im Imaginary parts. Must have the same length as re.
+	 * @param inverse TRUE for the inverse transform (scaled by 1/n)
+	 */
+	public static void transform(double[] re, double[] im, boolean inverse) {
+		transform(re, im, re.length, inverse);
+	}
+
+	/**
+	 * Transforms the first n positions of (re, im) in place.
+	 */
+	public static void transform(double[] re, double[] im, int n, boolean inverse) {
+		if(n <= 1) return;
+
+		FFTPlan.get(n, inverse).transform(re, im);
+	}
+
+	public static boolean isPowerOfTwo(int n) {
+		return n > 0 && (n & (n - 1)) == 0;
+	}
+
+	/**
+	 * Smallest power of two greater or equal to n.
+	 */
+	public static int nextPowerOfTwo(int n) {
+		if(n <= 1) return 1;
+		return Integer.highestOneBit(n - 1) << 1;
+	}
+
+	/**
+	 * Test driver: compares against the direct definition and times a big transform.
+	 */
+	public static void main(String[] args) {
+
+		for(int n: new int[]{ 8, 512, 500, 1000, 1023 }) {
+			double[] re = new double[n], im = new double[n];
+			for(int i = 0; i < n; i++) re[i] = Math.random() * 2 - 1;
+
+			//Direct DFT
+			double[] dr = new double[n], di = new double[n];
+			for(int k = 0; k < n; k++)
+				for(int j = 0; j < n; j++) {
+					double arg = -2 * Math.PI * ((long)j * k % n) / n;
+					dr[k] += re[j] * Math.cos(arg);
+					di[k] += re[j] * Math.sin(arg);
+				}
+
+			double[] xr = re.clone();
+			transform(re, im, false);
+
+			double err = 0;
+			for(int k = 0; k < n; k++)
+				err = Math.max(err, Math.hypot(re[k] - dr[k], im[k] - di[k]));
+
+			transform(re, im, true);
+			double errInv = 0;
+			for(int k = 0; k < n; k++)
+				errInv = Math.max(errInv, Math.abs(re[k] - xr[k]));
+
+			System.out.println("N = " + n + ": max error = " + err + ", round trip error = " + errInv);
+		}
+
+		int n = 65536;
+		double[] re = new double[n], im = new double[n];
+		for(int i = 0; i < n; i++) re[i] = Math.sin(i * 0.1);
+		long t = System.nanoTime();
+		for(int it = 0; it < 100; it++)
+			transform(re, im, (it & 1) == 1);
+		System.out.println("N = " + n + ": " + (System.nanoTime() - t) / 100 / 1000 + " us per transform");
+	}
+}
@@ -0,0 +1,248 @@
+package synthExperiments;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Everything a transform of a given (size, direction) needs that doesn't depend on the data:
+ * twiddle factors, bit reversal permutation and, for sizes which are not powers of two,
+ * Bluestein's chirp and the spectrum of the chirp filter. Once a plan is built, transforming
+ * calls no trigonometric function and allocates nothing (Bluestein's work buffers are kept per
+ * thread and reused).
+ *
+ * Plans are immutable and can be shared between threads. Use get() instead of building them:
+ * it keeps the most recently used plans in a bounded cache.
+ */
+public class FFTPlan {
+
+	/**
+	 * Maximum number of plans kept in cache. Least recently used plans are dropped first.
+	 */
+	public static final int CACHE_SIZE = 32;
+
+	private static final Map<Long, FFTPlan> cache = new LinkedHashMap<Long, FFTPlan>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, FFTPlan> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	private final int 		n;
+	private final boolean 	inverse;
+
+	/**
+	 * Power of two sizes: twiddle factors exp(-+2.pi.i.k/n), k < n/2, and bit reversal permutation.
+	 */
+	private final double[] 	cos, sin;
+	private final int[] 	bitReverse;
+
+	/**
+	 * Other sizes: chirp c[j] = exp(-+pi.i.j^2/n), FFT of conj(c) wrapped around (already
+	 * divided by m, the size of the inner transform) and the inner power of two plans.
+	 */
+	private final double[] 	chirpRe, chirpIm, filterRe, filterIm;
+	private final FFTPlan 	innerForward, innerInverse;
+	private final ThreadLocal<double[][]> work;
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Constructors -------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * Returns the plan for a transform of size n, building it if it is not in cache.
+	 * @param n Size of the transform (> 0)
+	 * @param inverse Direction of the transform
+	 */
+	public static FFTPlan get(int n, boolean inverse) {
+		Long key = ((long)n << 1) | (inverse ? 1 : 0);
+
+		synchronized(cache) {
+			FFTPlan plan = cache.get(key);
+			if(plan != null) return plan;
+		}
+
+		//Built outside the lock so big plans don't block everyone else
+		FFTPlan plan = new FFTPlan(n, inverse);
+
+		synchronized(cache) {
+			FFTPlan other = cache.get(key);
+			if(other != null) return other;
+			cache.put(key, plan);
+		}
+		return plan;
+	}
+
+	private FFTPlan(int n, boolean inverse) {
+		if(n <= 0)
+			throw new IllegalArgumentException("FFT size must be positive");
+
+		this.n = n;
+		this.inverse = inverse;
+
+		if(FFT.isPowerOfTwo(n)) {
+			int half = n / 2;
+			cos = new double[half];
+			sin = new double[half];
+			double theta = (inverse ? 2 : -2) * Math.PI / n;
+			for(int k = 0; k < half; k++) {
+				cos[k] = Math.cos(theta * k);
+				sin[k] = Math.sin(theta * k);
+			}
+
+			bitReverse = new int[n];
+			int bits = Integer.numberOfTrailingZeros(n);
+			for(int i = 0; i < n; i++)
+				bitReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+
+			chirpRe = chirpIm = filterRe = filterIm = null;
+			innerForward = innerInverse = null;
+			work = null;
+		}
+		else {
+			int m = FFT.nextPowerOfTwo(2 * n - 1);
+			cos = sin = null;
+			bitReverse = null;
+
+			innerForward = get(m, false);
+			innerInverse = get(m, true);
+
+			//Chirp. j^2 is reduced modulo 2n to keep the argument small and precise.
+			chirpRe = new double[n];
+			chirpIm = new double[n];
+			double sign = inverse ? 1 : -1;
+			for(int j = 0; j < n; j++) {
+				long j2 = ((long)j * j) % (2L * n);
+				double arg = sign * Math.PI * j2 / n;
+				chirpRe[j] = Math.cos(arg);
+				chirpIm[j] = Math.sin(arg);
+			}
+
+			//conj(c), wrapped around so negative indices land at the end
+			filterRe = new double[m];
+			filterIm = new double[m];
+			filterRe[0] = chirpRe[0];
+			filterIm[0] = -chirpIm[0];
+			for(int j = 1; j < n; j++) {
+				filterRe[j] = filterRe[m - j] = chirpRe[j];
+				filterIm[j] = filterIm[m - j] = -chirpIm[j];
+			}
+			innerForward.butterflies(filterRe, filterIm);
+
+			//Fold the 1/m of the inner inverse transform in the filter
+			for(int k = 0; k < m; k++) {
+				filterRe[k] /= m;
+				filterIm[k] /= m;
+			}
+
+			final int size = m;
+			work = new ThreadLocal<double[][]>() {
+				@Override
+				protected double[][] initialValue() {
+					return new double[][]{ new double[size], new double[size] };
+				}
+			};
+		}
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Access methods -----------------------------------------
+	//------------------------------------------------------------------------------------
+	public int 		size() 		{ return n; }
+	public boolean 	isInverse() { return inverse; }
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Operations ---------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * Transforms the first size() positions of (re, im) in place. Inverse plans divide by size().
+	 */
+	public void transform(double[] re, double[] im) {
+		if(n == 1) return;
+
+		if(bitReverse != null)
+			butterflies(re, im);
+		else
+			bluestein(re, im);
+
+		if(inverse) {
+			double scale = 1.0 / n;
+			for(int i = 0; i < n; i++) {
+				re[i] *= scale;
+				im[i] *= scale;
+			}
+		}
+	}
+
+	/**
+	 * Unscaled iterative radix-2 decimation in time.
+	 */
+	private void butterflies(double[] re, double[] im) {
+
+		for(int i = 0; i < n; i++) {
+			int j = bitReverse[i];
+			if(i < j) {
+				double t = re[i]; re[i] = re[j]; re[j] = t;
+				t = im[i]; im[i] = im[j]; im[j] = t;
+			}
+		}
+
+		for(int size = 2; size <= n; size <<= 1) {
+			int span = size / 2;
+			int stride = n / size;
+
+			for(int start = 0; start < n; start += size) {
+				for(int j = 0, w = 0; j < span; j++, w += stride) {
+					int a = start + j;
+					int b = a + span;
+
+					double tr = re[b] * cos[w] - im[b] * sin[w];
+					double ti = re[b] * sin[w] + im[b] * cos[w];
+
+					re[b] = re[a] - tr;
+					im[b] = im[a] - ti;
+					re[a] += tr;
+					im[a] += ti;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Unscaled transform of arbitrary size as a convolution with a chirp:
+	 * j.k = (j^2 + k^2 - (k-j)^2)/2, so X[k] = c[k] sum (x[j].c[j]) conj(c[k-j]).
+	 */
+	private void bluestein(double[] re, double[] im) {
+		double[][] buffers = work.get();
+		double[] ar = buffers[0];
+		double[] ai = buffers[1];
+		int m = ar.length;
+
+		//a = x.c, zero padded
+		for(int j = 0; j < n; j++) {
+			ar[j] = re[j] * chirpRe[j] - im[j] * chirpIm[j];
+			ai[j] = re[j] * chirpIm[j] + im[j] * chirpRe[j];
+		}
+		for(int j = n; j < m; j++)
+			ar[j] = ai[j] = 0.0;
+
+		innerForward.butterflies(ar, ai);
+
+		for(int k = 0; k < m; k++) {
+			double r = ar[k] * filterRe[k] - ai[k] * filterIm[k];
+			double i = ar[k] * filterIm[k] + ai[k] * filterRe[k];
+			ar[k] = r;
+			ai[k] = i;
+		}
+
+		innerInverse.butterflies(ar, ai);
+
+		//X = c.(a * b)
+		for(int k = 0; k < n; k++) {
+			re[k] = ar[k] * chirpRe[k] - ai[k] * chirpIm[k];
+			im[k] = ar[k] * chirpIm[k] + ai[k] * chirpRe[k];
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package synthExperiments;
+
+import java.io.IOException;
+
+/**
+ * Streams blocks to a mono WAVE file. Samples out of range [-1,1] are clipped.
+ * It's not consumed in real time, so it never underruns.
+ */
+public class FileSink implements AudioSink {
+
+	private final String 		filepath;
+	private final SampleSize 	size;
+	private WAVEWriter 			writer;
+
+	public FileSink(String filepath, SampleSize size) {
+		this.filepath = filepath;
+		this.size = size;
+	}
+
+	@Override
+	public void open(int sampleRate, int blockSize) throws Exception {
+		if(writer != null)
+			throw new Exception("Sink is already open.");
+
+		writer = new WAVEWriter(sampleRate, size, 1);
+		writer.setClipPolicy(ExtractSamples.ClipPolicy.CLIP);
+		writer.open(filepath);
+	}
+
+	@Override
+	public void write(double[] block, int off, int len) throws Exception {
+		if(writer == null)
+			throw new Exception("Sink is not open.");
+		writer.write(block, off, len);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(writer == null) return;
+
+		try {
+			writer.close();
+		} finally {
+			writer = null;
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package synthExperiments;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A designed filter: impulse response (already shifted, ready to convolve) and frequency
+ * response of a LinearFilter with a given type and parameters.
+ *
+ * Designing a filter means building its frequency response and running an inverse FFT.
+ * Pipelines build the same filters again and again, so LinearFilter keeps the kernels it
+ * designs in a bounded cache, keyed by filter class and design parameters (see
+ * LinearFilter.designParameters()). Kernels are immutable and shared between threads:
+ * a filter copies the impulse response before using it as its table.
+ */
+public class FilterKernel {
+
+	/**
+	 * Maximum number of kernels kept in cache. Least recently used kernels are dropped first.
+	 */
+	public static final int CACHE_SIZE = 64;
+
+	private static final Map<Key, FilterKernel> cache = new LinkedHashMap<Key, FilterKernel>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, FilterKernel> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	private static final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+
+	/**
+	 * Never modified after construction.
+	 */
+	private final double[] 	impulseResponse;
+	private final Signal 	frequencyResponse;
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Constructors -------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * Takes both responses as they are (no copy): they must not be changed afterwards.
+	 */
+	FilterKernel(double[] impulseResponse, Signal frequencyResponse) {
+		this.impulseResponse = impulseResponse;
+		this.frequencyResponse = frequencyResponse;
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Access methods -----------------------------------------
+	//------------------------------------------------------------------------------------
+	public int size() { return impulseResponse.length; }
+
+	/**
+	 * A copy of the impulse response.
+	 */
+	public double[] getImpulseResponse() {
+		return impulseResponse.clone();
+	}
+
+	/**
+	 * Impulse response, shared. Callers must not modify it.
+	 */
+	double[] impulse() {
+		return impulseResponse;
+	}
+
+	/**
+	 * Frequency response, shared. Callers must not modify it.
+	 */
+	Signal frequencyResponse() {
+		return frequencyResponse;
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Cache --------------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * Returns the cached kernel for KEY, or null if there's none. Counts a hit or a miss.
+	 */
+	static FilterKernel lookup(Key key) {
+		FilterKernel kernel;
+		synchronized(cache) {
+			kernel = cache.get(key);
+		}
+
+		if(kernel != null) hits.incrementAndGet();
+		else misses.incrementAndGet();
+		return kernel;
+	}
+
+	/**
+	 * Caches a kernel designed after a failed lookup(). If another thread stored the same
+	 * key meanwhile, its kernel is kept and returned.
+	 */
+	static FilterKernel store(Key key, FilterKernel kernel) {
+		synchronized(cache) {
+			FilterKernel other = cache.get(key);
+			if(other != null) return other;
+			cache.put(key, kernel);
+		}
+		return kernel;
+	}
+
+	public static long getHits() 	{ return hits.get(); }
+	public static long getMisses() 	{ return misses.get(); }
+
+	public static int getCacheSize() {
+		synchronized(cache) {
+			return cache.size();
+		}
+	}
+
+	/**
+	 * Drops every cached kernel and zeroes the counters.
+	 */
+	public static void clearCache() {
+		synchronized(cache) {
+			cache.clear();
+		}
+		hits.set(0);
+		misses.set(0);
+	}
+
+	/**
+	 * Filter class plus its design parameters.
+	 */
+	static final class Key {
+		private final Class<?> type;
+		private final double[] parameters;
+		private final int hash;
+
+		Key(Class<?> type, double[] parameters) {
+			this.type = type;
+			this.parameters = parameters;
+			this.hash = 31 * type.hashCode() + Arrays.hashCode(parameters);
+		}
+
+		@Override
+		public int hashCode() { return hash; }
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Key)) return false;
+			Key k = (Key)o;
+			return type == k.type && Arrays.equals(parameters, k.parameters);
+		}
+	}
+
+	/**
+	 * Test driver: designs the same 4 filters repeatedly, with the cache emptied before each
+	 * design (always a miss) and then with the cache.
+	 */
+	public static void main(String[] args) throws Exception {
+		int sampleRate = 48000, rounds = 2000;
+		Signal impulse = new Signal(new double[] {1.0});
+
+		for(int pass = 0; pass < 4; pass++) {
+			boolean cached = pass % 2 == 1;
+			clearCache();
+
+			long t0 = System.nanoTime();
+			for(int r = 0; r < rounds; r++) {
+				if(!cached) clearCache();
+				LinearFilter f = new HighpassFilter(200 + (r % 4) * 100, 1024, 1.0, sampleRate);
+				f.filter(impulse);
+			}
+			long t1 = System.nanoTime();
+
+			System.out.println((cached ? "Cached: " : "Not cached: ") + (t1 - t0) / 1e3 / rounds + " us per filter, "
+					+ getHits() + " hits, " + getMisses() + " misses");
+		}
+	}
+}
@@ -0,0 +1,250 @@
+package synthExperiments;
+
+import java.util.Arrays;
+
+/**
+ * Signal whose samples are kept as floats: half the memory (and memory bandwidth) of a
+ * regular signal, for long intermediate renders. Float precision (24 bits) is still far
+ * beyond what 16 or 24 bit files hold, and writeToWAVE() with F32BIT sends the samples
+ * to the file as they are.
+ *
+ * at(), copyInto(), appendAll(), scalarMultiply(), add() and clone() work on the floats.
+ * Any other operation needs a table of doubles, so the first one converts all samples;
+ * from then on the signal behaves as a regular one (and uses as much memory).
+ */
+public class FloatSignal extends Signal {
+
+	private float[] samples;
+	private int 	count;
+
+	/**
+	 * TRUE once samples were converted to TABLE (and SAMPLES dropped)
+	 */
+	private boolean loaded;
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Constructors -------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * Empty signal, to be filled with appendAll().
+	 */
+	public FloatSignal(int sampleRate) {
+		this(new float[0], sampleRate);
+	}
+
+	/**
+	 * Takes SAMPLES as they are (no copy).
+	 */
+	public FloatSignal(float[] samples, int sampleRate) {
+		super(new double[0], 0, sampleRate);
+		this.samples = samples;
+		this.count = samples.length;
+		this.loaded = false;
+	}
+
+	/**
+	 * Converts the samples of S to floats.
+	 */
+	public FloatSignal(Signal s) {
+		this(new float[s.size()], s.getSampleRate());
+
+		double[] block = new double[Math.min(count, 4096)];
+		for(int i = 0; i < count; i += block.length) {
+			int len = Math.min(block.length, count - i);
+			s.copyInto(i, block, 0, len);
+			for(int k = 0; k < len; k++)
+				samples[i + k] = (float)block[k];
+		}
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Access methods -----------------------------------------
+	//------------------------------------------------------------------------------------
+	@Override
+	public double at(int i) {
+		if(loaded) return super.at(i);
+
+		if(i >= count || i < 0) return Double.NaN;
+		return samples[i];
+	}
+
+	@Override
+	public int size() {
+		return loaded ? length : count;
+	}
+
+	@Override
+	public void copyInto(int from, double[] target, int offset, int len) {
+		if(loaded) {
+			super.copyInto(from, target, offset, len);
+			return;
+		}
+
+		if(from < 0 || from + len > count)
+			throw new IndexOutOfBoundsException("Range [" + from + ", " + (from + len) + ") out of signal");
+		for(int i = 0; i < len; i++)
+			target[offset + i] = samples[from + i];
+	}
+
+	@Override
+	public void copyInto(double[] target, int offset) {
+		copyInto(0, target, offset, size());
+	}
+
+	@Override
+	public double[] toArray() {
+		double[] out = new double[size()];
+		copyInto(0, out, 0, out.length);
+		return out;
+	}
+
+	@Override
+	public void appendAll(double[] s, int offset, int len) {
+		if(loaded) {
+			super.appendAll(s, offset, len);
+			return;
+		}
+
+		ensureFloatCapacity(count + len);
+		for(int i = 0; i < len; i++)
+			samples[count + i] = (float)s[offset + i];
+		count += len;
+	}
+
+	public void appendAll(float[] s, int offset, int len) {
+		if(loaded) {
+			double[] d = new double[len];
+			for(int i = 0; i < len; i++)
+				d[i] = s[offset + i];
+			super.appendAll(d, 0, len);
+			return;
+		}
+
+		ensureFloatCapacity(count + len);
+		System.arraycopy(s, offset, samples, count, len);
+		count += len;
+	}
+
+	private void ensureFloatCapacity(int n) {
+		if(n > samples.length)
+			samples = Arrays.copyOf(samples, Math.max(n, samples.length + samples.length / 2 + 16));
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Operations ---------------------------------------------
+	//------------------------------------------------------------------------------------
+	@Override
+	public void scalarMultiply(double scalar) {
+		if(loaded) {
+			super.scalarMultiply(scalar);
+			return;
+		}
+
+		float f = (float)scalar;
+		for(int i = 0; i < count; i++)
+			samples[i] *= f;
+	}
+
+	@Override
+	public void add(Signal S, int offset) {
+		if(loaded) {
+			super.add(S, offset);
+			return;
+		}
+
+		int n = S.size();
+		if(n + offset > count) return;
+
+		double[] block = new double[Math.min(n, 4096)];
+		for(int i = 0; i < n; i += block.length) {
+			int len = Math.min(block.length, n - i);
+			S.copyInto(i, block, 0, len);
+			for(int k = 0; k < len; k++)
+				samples[offset + i + k] += block[k];
+		}
+	}
+
+	@Override
+	public Signal clone(int n) {
+		if(loaded) return super.clone(n);
+
+		if(n > count) n = count;
+		return new FloatSignal(Arrays.copyOf(samples, n), sampleRate);
+	}
+
+	/**
+	 * Writes the signal to a wave file. With F32BIT, samples are written as they are; with
+	 * integer sizes, samples out of range [-1,1] are clipped.
+	 */
+	@Override
+	public void writeToWAVE(String filepath, SampleSize size) {
+		if(loaded) {
+			super.writeToWAVE(filepath, size);
+			return;
+		}
+
+		WAVEWriter writer = new WAVEWriter(sampleRate, size, 1);
+		writer.setClipPolicy(ExtractSamples.ClipPolicy.CLIP);
+
+		try {
+			writer.open(filepath);
+			writer.write(samples, 0, count);
+		} catch(Exception e) {
+			System.err.println(e.getMessage());
+		} finally {
+			try { writer.close(); } catch(Exception e) { System.err.println(e.getMessage()); }
+		}
+	}
+
+	/**
+	 * Converts every sample to TABLE, once.
+	 */
+	@Override
+	protected void load() {
+		if(loaded) return;
+
+		double[] t = new double[count];
+		copyInto(0, t, 0, count);
+
+		this.table = t;
+		this.length = count;
+		this.samples = null;
+		this.loaded = true;
+	}
+
+	/**
+	 * Test driver: a long render in float and double, memory and file sizes compared,
+	 * and a float file read back.
+	 */
+	public static void main(String[] args) throws Exception {
+		int sampleRate = 48000, seconds = 60, block = 1024;
+		SineSynth synth = new SineSynth(sampleRate);
+		synth.setFrequency(440);
+
+		FloatSignal f = new FloatSignal(sampleRate);
+		double[] buf = new double[block];
+		for(int i = 0; i < seconds * sampleRate; i += block) {
+			synth.render(buf, 0, block);
+			f.appendAll(buf, 0, block);
+		}
+		f.scalarMultiply(0.5);
+		System.out.println(f.size() + " samples, " + f.samples.length * 4 / (1 << 20) + " MB as floats (a Signal would take "
+				+ (long)f.size() * 8 / (1 << 20) + " MB)");
+
+		for(SampleSize size: new SampleSize[] { SampleSize.F32BIT, SampleSize.F64BIT, SampleSize.S16BIT }) {
+			long t0 = System.nanoTime();
+			f.writeToWAVE("FLOAT.wav", size);
+			long t1 = System.nanoTime();
+
+			WAVEReader reader = new WAVEReader("FLOAT.wav");
+			Signal back = reader.getSignal();
+			double err = 0;
+			for(int i = 0; i < f.size(); i++)
+				err = Math.max(err, Math.abs(back.at(i) - f.at(i)));
+
+			System.out.println(size + ": written in " + (t1 - t0) / 1e6 + " ms, read back as " + reader.getSampleSize()
+					+ ", max error " + err);
+		}
+	}
+}
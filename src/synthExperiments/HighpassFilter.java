@@ -5,8 +5,8 @@ import java.util.ArrayList;
 /**
  * Implements a high pass filter with (ideal) square frequency response.
  * Attribute TABLE stores impulsive response while frequencyResponse...well, you go it.
- * Each time we change filters parameters, we recalculate frequency response and then
- * impulsive response.
+ * After we change filters parameters, frequency response and then impulsive response
+ * are recalculated the next time the filter is used.
  */
 public class HighpassFilter extends LinearFilter {
 
@@ -0,0 +1,89 @@
+package synthExperiments;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Plays blocks on the default sound card through javax.sound, as 16 bits mono PCM.
+ * Samples out of range [-1,1] are clipped.
+ */
+public class JavaSoundSink implements AudioSink {
+
+	/**
+	 * Size of the line buffer, in blocks. Output latency is about bufferBlocks * blockSize samples.
+	 */
+	private final int bufferBlocks;
+
+	private final ExtractSamples sampler = new ExtractSamples(SampleSize.S16BIT, ExtractSamples.ClipPolicy.CLIP);
+	private SourceDataLine 	line;
+	private ByteBuffer 		buffer;
+	private long 			underruns;
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Constructors -------------------------------------------
+	//------------------------------------------------------------------------------------
+	public JavaSoundSink(int bufferBlocks) {
+		this.bufferBlocks = Math.max(2, bufferBlocks);
+	}
+
+	public JavaSoundSink() { this(4); }
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Operations ---------------------------------------------
+	//------------------------------------------------------------------------------------
+	@Override
+	public void open(int sampleRate, int blockSize) throws Exception {
+		if(line != null)
+			throw new Exception("Sink is already open.");
+
+		AudioFormat format = new AudioFormat(sampleRate, 16, 1, true, false);
+		line = AudioSystem.getSourceDataLine(format);
+		line.open(format, bufferBlocks * blockSize * 2);
+
+		buffer = ByteBuffer.allocate(blockSize * 2).order(ByteOrder.LITTLE_ENDIAN);
+		underruns = 0;
+	}
+
+	/**
+	 * Blocks until the line has room for the samples. A line found completely empty
+	 * means the card ran out of samples since the last write: that's counted as an underrun.
+	 */
+	@Override
+	public void write(double[] block, int off, int len) throws Exception {
+		if(line == null)
+			throw new Exception("Sink is not open.");
+
+		if(line.isRunning() && line.available() >= line.getBufferSize())
+			underruns++;
+
+		int chunk = buffer.capacity() / 2;
+		for(int done = 0; done < len; done += chunk) {
+			int n = Math.min(chunk, len - done);
+
+			buffer.clear();
+			sampler.encode(block, off + done, n, buffer);
+			line.write(buffer.array(), 0, buffer.position());
+		}
+
+		if(!line.isRunning()) line.start();
+	}
+
+	@Override
+	public long getUnderruns() { return underruns; }
+
+	/**
+	 * Plays whatever is left in the line and releases it.
+	 */
+	@Override
+	public void close() {
+		if(line == null) return;
+
+		line.drain();
+		line.close();
+		line = null;
+	}
+}
@@ -1,6 +1,9 @@
 package synthExperiments;
 
-public abstract class LinearFilter extends Signal {
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+public abstract class LinearFilter extends Signal implements BlockProcessor {
 
 	/**
 	 * Filter's frequency response
@@ -22,6 +25,33 @@ public abstract class LinearFilter extends Signal {
 	 */
 	protected double gain;
 	
+	/**
+	 * Delay line for process(): the last filterLength inputs, newest first, stored twice
+	 * in a row so that the window starting at historyPos is always contiguous.
+	 */
+	private double[] history;
+	private int historyPos;
+	
+	/**
+	 * TRUE when parameters changed since the kernel was designed. Setters only raise it;
+	 * the kernel is redesigned once, the next time it is used (see load()). It's cleared
+	 * only once a design succeeds, so a failed design is tried again on the next use.
+	 */
+	private volatile boolean dirty;
+	
+	/**
+	 * Last kernel designed, null until a design succeeds. Kernels are immutable and replaced
+	 * as a whole, so filter() and process() read this once and use a consistent kernel even
+	 * if parameters are changed by another thread meanwhile.
+	 */
+	private volatile FilterKernel kernel;
+	
+	/**
+	 * TRUE while calculateFilter() runs (guarded by the lock): the design reads and writes
+	 * the table through Signal's methods, which must not start another design.
+	 */
+	private boolean designing;
+	
 	//------------------------------------------------------------------------------------
 	//--------------------------- Constructors -------------------------------------------	
 	//------------------------------------------------------------------------------------
@@ -31,6 +61,7 @@ public abstract class LinearFilter extends Signal {
 		this.filterLength = filterLength;
 		this.gain = gain;
 		this.frequencyResponse = null;
+		this.dirty = true;
 	}
 	
 	public LinearFilter() {
@@ -50,47 +81,68 @@ public abstract class LinearFilter extends Signal {
 	 * @return A clone of the signal with frequency response of this filter
 	 */
 	public Signal getFreqResponse() {
-		if(this.frequencyResponse == null) return null;
-		return frequencyResponse.clone();
+		FilterKernel k = currentKernel();
+		if(k == null || k.frequencyResponse() == null) return null;
+		return k.frequencyResponse().clone();
 	}
 	
 	/**
-	 * Sets gain. Requires recalculating all the filter (which is a quadratic operation).
+	 * Sets gain. The filter is redesigned the next time it is used, so several
+	 * parameters can be changed for the price of a single design.
 	 */
-	public void setGain(double gain) {
+	public synchronized void setGain(double gain) {
 		if(gain >= 0.0) this.gain = gain;
 		else return;
 		
-		this.calculateFilter();
+		invalidate();
 	}
 	
 	/**
-	 * Sets cutoff frequency. Requires recalculating all the filter (which is a quadratic operation).
+	 * Sets cutoff frequency. The filter is redesigned the next time it is used, so several
+	 * parameters can be changed for the price of a single design.
 	 */
-	public void setCutoff(double cutoff) { 
+	public synchronized void setCutoff(double cutoff) { 
 		if(cutoff >= 0.0) this.cutoff = cutoff; 
 		else return;
 		
-		this.calculateFilter();
+		invalidate();
 	}
 	
 	/**
-	 * Sets filter length. Requires recalculating all the filter (which is a quadratic operation).
+	 * Sets filter length. The filter is redesigned the next time it is used, so several
+	 * parameters can be changed for the price of a single design.
 	 */
-	public void setFilterLength(int N) { 
+	public synchronized void setFilterLength(int N) { 
 		if(N > 0) this.filterLength = N;
 		else return;
 		
-		this.calculateFilter();
+		invalidate();
 	}
 	
 	/**
-	 * Sets sample rate. Requires recalculating all the filter (which is a quadratic operation).
+	 * Sets sample rate. The filter is redesigned the next time it is used.
 	 */
 	@Override
-	public void setSampleRate(int s) { 
+	public synchronized void setSampleRate(int s) { 
 		super.setSampleRate(s);
-		this.calculateFilter();
+		invalidate();
+	}
+	
+	/**
+	 * Starts a batch of parameter changes, applied together by Edit.apply(). Example:
+	 * filter.edit().cutoff(400).filterLength(128).gain(0.5).apply();
+	 * Values are validated as the setters do (invalid ones are ignored).
+	 */
+	public Edit edit() {
+		return new Edit();
+	}
+	
+	/**
+	 * Marks the kernel as outdated, so it's redesigned the next time it is used.
+	 * Subclasses with parameters of their own must call it from their setters.
+	 */
+	protected void invalidate() {
+		dirty = true;
 	}
 	
 	//------------------------------------------------------------------------------------
@@ -103,14 +155,196 @@ public abstract class LinearFilter extends Signal {
 	 * @return The signal s after being filtered
 	 */
 	public Signal filter(Signal s) throws Exception {
-		if(cutoff < 0)
-			throw new Exception("Bad cutoff frequency ( < 0.0 )");
-		
-		if(frequencyResponse == null)
-			this.calculateFilter();
+		checkParameters();
 		
 		//Convolve impulse response with operand
-		return s.convolve(this);
+		return s.convolve(kernelSignal());
+	}
+	
+	/**
+	 * Same as filter(s), but long signals are convolved in parallel by the tasks of POOL.
+	 * Useful for offline renders; the result is bit-identical to filter(s).
+	 */
+	public Signal filter(Signal s, ForkJoinPool pool) throws Exception {
+		checkParameters();
+		
+		return s.convolve(kernelSignal(), pool);
+	}
+	
+	/**
+	 * Streaming version of filter(): filters N samples from IN to OUT, keeping the last
+	 * inputs in a delay line so the next call continues where this one stopped. Feeding
+	 * a signal in chunks gives the same output as a single filter() call on the whole
+	 * signal. Nothing is allocated after the first call (or after the filter length changes).
+	 * Parameters may be changed from other threads while a thread streams: each call uses
+	 * the kernel designed with the parameters set when it starts. process() and reset()
+	 * themselves must be called from a single thread.
+	 * @param in Input samples
+	 * @param out Output samples. May be the same array as IN.
+	 * @param n Number of samples to process
+	 */
+	public void process(double[] in, double[] out, int n) throws Exception {
+		checkParameters();
+		
+		FilterKernel kernel = currentKernel();
+		int M = (kernel == null) ? 0 : kernel.size();
+		if(M == 0) {
+			Arrays.fill(out, 0, n, 0.0);
+			return;
+		}
+		if(history == null || history.length != 2 * M)
+			resizeHistory(M);
+		
+		double[] h = kernel.impulse();
+		double[] hist = this.history;
+		int pos = this.historyPos;
+		
+		for(int i = 0; i < n; i++) {
+			pos = (pos == 0) ? M - 1 : pos - 1;
+			hist[pos] = hist[pos + M] = in[i];
+			
+			double sum = 0;
+			for(int k = 0; k < M; k++)
+				sum += h[k] * hist[pos + k];
+			
+			out[i] = sum;
+		}
+		
+		this.historyPos = pos;
+	}
+	
+	/**
+	 * Clears the delay line used by process(), as if no sample had been processed yet.
+	 */
+	public void reset() {
+		FilterKernel k = currentKernel();
+		int M = (k == null) ? 0 : k.size();
+		
+		if(history == null || history.length != 2 * M)
+			history = new double[2 * M];
+		else
+			Arrays.fill(history, 0.0);
+		historyPos = 0;
+	}
+	
+	/**
+	 * Adapts the delay line to a kernel of M taps, keeping the newest inputs, so changing
+	 * the filter length while streaming doesn't restart the filter from silence.
+	 */
+	private void resizeHistory(int M) {
+		double[] hist = new double[2 * M];
+		
+		if(history != null) {
+			int oldM = history.length / 2;
+			for(int k = 0; k < Math.min(M, oldM); k++)
+				hist[k] = hist[k + M] = history[historyPos + k];
+		}
+		
+		history = hist;
+		historyPos = 0;
+	}
+	
+	/**
+	 * Redesigns the kernel if parameters changed since the last design. Called before
+	 * any use of the kernel: filter(), process() and every Signal operation.
+	 */
+	@Override
+	protected void load() {
+		if(dirty) calculateFilter();
+	}
+	
+	//------------------------------------------------------------------------------------
+	//--------------------------- Signal operations --------------------------------------
+	//------------------------------------------------------------------------------------
+	
+	/*
+	 * The filter is the signal of its impulse response: Signal operations change it as in
+	 * any other signal, and filter() and process() use the changed response (until the
+	 * parameters change and the filter is designed again). Each one publishes the new
+	 * response as the kernel.
+	 */
+	
+	@Override
+	public int size() {
+		load();
+		return super.size();
+	}
+	
+	@Override
+	public double at(int i) {
+		load();
+		return super.at(i);
+	}
+	
+	@Override
+	public synchronized void appendAll(double[] samples, int offset, int len) {
+		super.appendAll(samples, offset, len);
+		publishTable();
+	}
+	
+	@Override
+	public synchronized void multiplyElements(Signal S, int offset) {
+		super.multiplyElements(S, offset);
+		publishTable();
+	}
+	
+	@Override
+	public synchronized void normalize() {
+		super.normalize();
+		publishTable();
+	}
+	
+	@Override
+	public synchronized void scalarMultiply(double scalar) {
+		super.scalarMultiply(scalar);
+		publishTable();
+	}
+	
+	@Override
+	public synchronized void add(Signal S, int offset) {
+		super.add(S, offset);
+		publishTable();
+	}
+	
+	@Override
+	public synchronized void padWithZeros(int N) {
+		super.padWithZeros(N);
+		publishTable();
+	}
+	
+	/**
+	 * Publishes the table, as it is now, as the kernel used by filter() and process().
+	 * Not cached: it's not the design of any parameters anymore.
+	 */
+	private void publishTable() {
+		this.kernel = new FilterKernel(Arrays.copyOf(table, length), frequencyResponse);
+	}
+	
+	/**
+	 * The kernel for the current parameters (designed now if needed), or null if they
+	 * can't build a filter.
+	 */
+	private FilterKernel currentKernel() {
+		load();
+		return kernel;
+	}
+	
+	/**
+	 * The current impulse response as a signal of its own, so a concurrent redesign can't
+	 * change it in the middle of a convolution. Empty if there's no kernel.
+	 */
+	private Signal kernelSignal() {
+		FilterKernel k = currentKernel();
+		double[] h = (k == null) ? new double[0] : k.impulse();
+		return new Signal(h, h.length, sampleRate);
+	}
+	
+	/**
+	 * Throws an exception if the parameters can't build a filter.
+	 */
+	protected void checkParameters() throws Exception {
+		if(cutoff < 0)
+			throw new Exception("Bad cutoff frequency ( < 0.0 )");
 	}
 	
 	/**
@@ -147,7 +381,10 @@ public abstract class LinearFilter extends Signal {
 	 * Calculates impulse response based on frequency response
 	 */
 	protected void calcImpulseResponse() {
-		frequencyResponse.iFFT().cloneSamples( this.table );
+		//iFFT() returns a brand new signal, so we can take its table instead of copying it
+		Signal impulse = frequencyResponse.iFFT();
+		this.table = impulse.table;
+		this.length = impulse.length;
 	}
 	
 	/**
@@ -176,34 +413,104 @@ public abstract class LinearFilter extends Signal {
 		
 		//If size is odd, put middle element in the beginning
 		if( size() % 2 == 1) {
-			double middle = table.get(half);
+			double middle = table[half];
 			for(int i = half; i > 0; i--)
-				table.set(i, table.get(i-1) );
-			table.set(0, middle);
+				table[i] = table[i-1];
+			table[0] = middle;
 			
 			begin = 1;
 		}
 		
 		//i = Zero if size is EVEN, = 1 if it is ODD 
 		for(int i = begin; i < half + begin; i++) {
-			double aux = table.get(i);
-			table.set(i, table.get(i + half) );
-			table.set(i + half, aux);
+			double aux = table[i];
+			table[i] = table[i + half];
+			table[i + half] = aux;
 		}
 	}
 	
 	/**
-	 *  Recalculate filter
+	 * Everything the design of this filter depends on, besides its class. Used as key of
+	 * the kernel cache (see FilterKernel), so subclasses with parameters of their own
+	 * must override it and append them.
 	 */
-	protected void calculateFilter() {
+	protected double[] designParameters() {
+		return new double[] { cutoff, filterLength, gain, sampleRate };
+	}
+	
+	/**
+	 *  Recalculate filter. Kernels already designed (same class and parameters) are
+	 *  taken from cache instead. Setters take the same lock, so the design sees a
+	 *  consistent set of parameters.
+	 */
+	protected synchronized void calculateFilter() {
+		//Another thread designed it meanwhile, or the design itself reads the table
+		if(!dirty || designing) return;
+		designing = true;
+		
 		try {
-			calcFrequencyResponse();
-		} catch(Exception e) {
-			System.err.println(e.getMessage());
-			return;
+			FilterKernel.Key key = new FilterKernel.Key(getClass(), designParameters());
+			FilterKernel kernel = FilterKernel.lookup(key);
+			
+			if(kernel == null) {
+				try {
+					calcFrequencyResponse();
+				} catch(Exception e) {
+					//DIRTY stays raised: the next use tries again (with the truncated cutoff)
+					System.err.println(e.getMessage());
+					return;
+				}
+				
+				calcImpulseResponse();
+				shiftHalves();
+				
+				//Cache a copy: our table may be changed as any other signal's
+				kernel = FilterKernel.store(key, new FilterKernel(Arrays.copyOf(table, length), frequencyResponse));
+			}
+			
+			this.table = kernel.getImpulseResponse();
+			this.length = table.length;
+			this.frequencyResponse = kernel.frequencyResponse();
+			this.kernel = kernel;
+			
+			dirty = false;
+		} finally {
+			designing = false;
 		}
+	}
+	
+	/**
+	 * A batch of parameter changes. Starts with the current parameters of the filter;
+	 * apply() sets all of them at once and the filter is redesigned a single time, when
+	 * it is used again.
+	 */
+	public class Edit {
+		private double 	cutoff = LinearFilter.this.cutoff;
+		private int 	filterLength = LinearFilter.this.filterLength;
+		private double 	gain = LinearFilter.this.gain;
+		private int 	sampleRate = LinearFilter.this.sampleRate;
 		
-		calcImpulseResponse();
-		shiftHalves();
+		public Edit cutoff(double c) 		{ if(c >= 0.0) cutoff = c; return this; }
+		public Edit filterLength(int N) 	{ if(N > 0) filterLength = N; return this; }
+		public Edit gain(double g) 			{ if(g >= 0.0) gain = g; return this; }
+		public Edit sampleRate(int s) 		{ if(s > 0) sampleRate = s; return this; }
+		
+		public void apply() {
+			synchronized(LinearFilter.this) {
+				set();
+				invalidate();
+			}
+		}
+		
+		/**
+		 * Copies the new parameters to the filter; called by apply() with the filter's lock
+		 * held. Subclasses with more parameters extend Edit and override this.
+		 */
+		protected void set() {
+			LinearFilter.this.cutoff = cutoff;
+			LinearFilter.this.filterLength = filterLength;
+			LinearFilter.this.gain = gain;
+			LinearFilter.this.sampleRate = sampleRate;
+		}
 	}
 }
@@ -0,0 +1,102 @@
+package synthExperiments;
+
+/**
+ * Signal whose samples live in a memory mapped WAVE file (see WAVEReader).
+ * Nothing is decoded when it is built: at(), copyInto() and clone() decode only the samples
+ * they touch, so only those pages of the file are ever read. Any other operation needs the
+ * whole table, so the first one decodes all samples to memory; from then on the signal
+ * behaves as a regular one and the file is never modified.
+ */
+public class MappedSignal extends Signal {
+
+	private final WAVEReader 	reader;
+	private final int 			channel;
+	private final int 			frames;
+
+	/**
+	 * TRUE once all samples were decoded to TABLE
+	 */
+	private boolean loaded;
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Constructors -------------------------------------------
+	//------------------------------------------------------------------------------------
+	MappedSignal(WAVEReader reader, int channel) {
+		super(new double[0], 0, reader.getSampleRate());
+		this.reader = reader;
+		this.channel = channel;
+		this.frames = (int)reader.getFrames();
+		this.loaded = false;
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Access methods -----------------------------------------
+	//------------------------------------------------------------------------------------
+	@Override
+	public double at(int i) {
+		if(loaded) return super.at(i);
+
+		if(i >= frames || i < 0) return Double.NaN;
+		return reader.decode(i, channel);
+	}
+
+	@Override
+	public int size() {
+		return loaded ? length : frames;
+	}
+
+	public int getChannel() { return channel; }
+
+	@Override
+	public void copyInto(int from, double[] target, int offset, int len) {
+		if(loaded) {
+			super.copyInto(from, target, offset, len);
+			return;
+		}
+
+		if(from < 0 || from + len > frames)
+			throw new IndexOutOfBoundsException("Range [" + from + ", " + (from + len) + ") out of signal");
+		for(int i = 0; i < len; i++)
+			target[offset + i] = reader.decode(from + i, channel);
+	}
+
+	@Override
+	public void copyInto(double[] target, int offset) {
+		copyInto(0, target, offset, size());
+	}
+
+	@Override
+	public double[] toArray() {
+		double[] out = new double[size()];
+		copyInto(0, out, 0, out.length);
+		return out;
+	}
+
+	@Override
+	public Signal clone(int n) {
+		if(loaded) return super.clone(n);
+
+		if(n > frames) n = frames;
+		double[] samples = new double[n];
+		copyInto(0, samples, 0, n);
+		return new Signal( samples, n, this.sampleRate );
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Operations ---------------------------------------------
+	//------------------------------------------------------------------------------------
+	/**
+	 * Decodes every sample to TABLE, once.
+	 */
+	@Override
+	protected void load() {
+		if(loaded) return;
+
+		double[] samples = new double[frames];
+		copyInto(0, samples, 0, frames);
+
+		this.table = samples;
+		this.length = frames;
+		this.loaded = true;
+	}
+}
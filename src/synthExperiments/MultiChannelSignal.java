@@ -0,0 +1,130 @@
+package synthExperiments;
+
+/**
+ * A group of signals with the same length and sample rate, one per channel (stereo, 5.1...).
+ * Samples are kept planar, i.e., one table per channel, which is how we render them; they
+ * are only interleaved when written to a file (see WAVEWriter.write(MultiChannelSignal)).
+ */
+public class MultiChannelSignal {
+
+	private final double[][] 	channels;
+	private final int 			frames;
+	private int 				sampleRate;
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Constructors -------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * Takes the tables as they are (no copy). All of them must have the same length.
+	 * @param channels One table per channel
+	 * @param sampleRate Sample rate of every channel
+	 */
+	public MultiChannelSignal(double[][] channels, int sampleRate) {
+		if(channels.length == 0)
+			throw new IllegalArgumentException("A signal needs at least one channel");
+
+		for(double[] c: channels)
+			if(c.length != channels[0].length)
+				throw new IllegalArgumentException("All channels must have the same length");
+
+		this.channels = channels;
+		this.frames = channels[0].length;
+		this.sampleRate = sampleRate;
+	}
+
+	/**
+	 * Copies the samples of each signal in a channel. Signals must have the same length;
+	 * sample rate is taken from the first one.
+	 */
+	public MultiChannelSignal(Signal... signals) {
+		this(toTables(signals), signals[0].getSampleRate());
+	}
+
+	/**
+	 * Silent signal with N channels of FRAMES samples each.
+	 */
+	public MultiChannelSignal(int nChannels, int frames, int sampleRate) {
+		this(new double[nChannels][frames], sampleRate);
+	}
+
+	private static double[][] toTables(Signal[] signals) {
+		double[][] tables = new double[signals.length][];
+		for(int c = 0; c < signals.length; c++)
+			tables[c] = signals[c].toArray();
+		return tables;
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Access methods -----------------------------------------
+	//------------------------------------------------------------------------------------
+	public int 	getNumChannels() 		{ return channels.length; }
+	public int 	size() 					{ return frames; }
+	public int 	getSampleRate() 		{ return sampleRate; }
+	public void setSampleRate(int s) 	{ if(s > 0) sampleRate = s; }
+
+	/**
+	 * Table of a channel, without copy: writing to it changes this signal.
+	 * Useful to render straight into the channel.
+	 */
+	public double[] getTable(int channel) {
+		return channels[channel];
+	}
+
+	/**
+	 * All the tables, without copy, one per channel.
+	 */
+	public double[][] getTables() {
+		return channels;
+	}
+
+	/**
+	 * A signal sharing the samples of a channel: operations on it (scalarMultiply(),
+	 * add()...) change this channel.
+	 */
+	public Signal getChannel(int channel) {
+		return new Signal( channels[channel], frames, sampleRate );
+	}
+
+	public double at(int channel, int frame) {
+		if(frame < 0 || frame >= frames) return Double.NaN;
+		return channels[channel][frame];
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Operations ---------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * Write all channels, interleaved, to a wave file. Samples out of range [-1,1] are clipped.
+	 * @param filepath File to save
+	 * @param size Number of bytes we'll use to sample each point.
+	 */
+	public void writeToWAVE(String filepath, SampleSize size) {
+		WAVEWriter writer = new WAVEWriter(sampleRate, size, channels.length);
+		writer.setClipPolicy(ExtractSamples.ClipPolicy.CLIP);
+
+		try {
+			writer.open(filepath);
+			writer.write(this);
+		} catch(Exception e) {
+			System.err.println(e.getMessage());
+		} finally {
+			try { writer.close(); } catch(Exception e) { System.err.println(e.getMessage()); }
+		}
+	}
+
+	/**
+	 * Test driver: a stereo file, 440 Hz on the left and 660 Hz on the right.
+	 */
+	public static void main(String[] args) throws Exception {
+		int sampleFreq = 48000;
+
+		Signal left = new SineSynth(sampleFreq).generate(2, 440);
+		Signal right = new SineSynth(sampleFreq).generate(2, 660);
+		left.scalarMultiply(0.5);
+		right.scalarMultiply(0.5);
+
+		new MultiChannelSignal(left, right).writeToWAVE("STEREO.wav", SampleSize.S16BIT);
+	}
+}
@@ -0,0 +1,75 @@
+package synthExperiments;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Discards every block. For headless tests and benchmarks.
+ *
+ * Built with a buffer size, it behaves like a sound card without one: a device clock
+ * consumes samples at the sample rate, write() blocks while its buffer is full and an
+ * underrun is counted whenever the clock gets past the samples written so far.
+ * Without a buffer size, write() returns at once, so the loop runs as fast as it can.
+ */
+public class NullSink implements AudioSink {
+
+	/**
+	 * Size of the emulated buffer, in blocks. Zero if not emulating a device.
+	 */
+	private final int bufferBlocks;
+
+	private int 	sampleRate, bufferSize;
+	private long 	start, written, underruns;
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Constructors -------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * @param bufferBlocks Size of the emulated device buffer, in blocks.
+	 */
+	public NullSink(int bufferBlocks) {
+		this.bufferBlocks = Math.max(0, bufferBlocks);
+	}
+
+	public NullSink() { this(0); }
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Operations ---------------------------------------------
+	//------------------------------------------------------------------------------------
+	@Override
+	public void open(int sampleRate, int blockSize) {
+		this.sampleRate = sampleRate;
+		this.bufferSize = bufferBlocks * blockSize;
+		this.written = 0;
+		this.underruns = 0;
+	}
+
+	@Override
+	public void write(double[] block, int off, int len) {
+		if(bufferSize == 0) return;
+
+		long now = System.nanoTime();
+		if(written == 0) start = now;
+
+		//Samples the device played since the first write
+		long played = (now - start) * sampleRate / 1000000000L;
+		if(played > written) {
+			//Ran dry: the device restarts its clock when new samples arrive
+			underruns++;
+			start = now - written * 1000000000L / sampleRate;
+		}
+
+		//Wait until there's room for LEN samples
+		long deadline = start + (written + len - bufferSize) * 1000000000L / sampleRate;
+		for(long wait = deadline - System.nanoTime(); wait > 0; wait = deadline - System.nanoTime())
+			LockSupport.parkNanos(wait);
+
+		written += len;
+	}
+
+	@Override
+	public long getUnderruns() { return underruns; }
+
+	@Override
+	public void close() {}
+}
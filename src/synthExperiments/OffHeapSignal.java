@@ -0,0 +1,372 @@
+package synthExperiments;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Signal for renders too long for Signal: samples are indexed by long and kept off the
+ * Java heap, so they don't count against the 2^31 samples of an array and the garbage
+ * collector never scans or moves them. Hours of 96 kHz audio are a few GB.
+ *
+ * Samples live in segments of SEGMENT doubles, either direct buffers (allocate()) or
+ * regions of a memory mapped file (map()). A mapped signal can be bigger than RAM: the
+ * OS pages it in and out as operations go through it. Direct buffers count against
+ * -XX:MaxDirectMemorySize, which is the maximum heap size unless it's set: allocating a
+ * few GB needs that flag (e.g. -XX:MaxDirectMemorySize=8g), or map() instead.
+ *
+ * Every operation works in blocks of BLOCK samples, copied to a heap array and back, so
+ * memory use doesn't depend on the length of the signal; filter() streams the blocks
+ * through any BlockProcessor. Use slice() to get a part of it as a regular Signal.
+ */
+public class OffHeapSignal implements AutoCloseable {
+
+	/**
+	 * Samples per segment (128 MB). A buffer can't hold more than 2^31 bytes.
+	 */
+	public static final int SEGMENT = 1 << 24;
+
+	/**
+	 * Samples per block in operations.
+	 */
+	public static final int BLOCK = 1 << 14;
+
+	private final DoubleBuffer[] 	segments;
+	private final long 				length;
+	private int 					sampleRate;
+
+	/**
+	 * Only for file backed signals: the file and its mapped regions, to force() changes.
+	 */
+	private FileChannel 		channel;
+	private MappedByteBuffer[] 	regions;
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Constructors -------------------------------------------
+	//------------------------------------------------------------------------------------
+	private OffHeapSignal(DoubleBuffer[] segments, long length, int sampleRate,
+			FileChannel channel, MappedByteBuffer[] regions) {
+		this.segments = segments;
+		this.length = length;
+		this.sampleRate = sampleRate;
+		this.channel = channel;
+		this.regions = regions;
+	}
+
+	/**
+	 * Silent signal of LENGTH samples in direct (off heap) memory. The JVM gives at most
+	 * -XX:MaxDirectMemorySize bytes of it (by default, as much as the maximum heap size);
+	 * beyond that, this throws OutOfMemoryError. Use map() for longer signals.
+	 */
+	public static OffHeapSignal allocate(long length, int sampleRate) {
+		if(length < 0 || sampleRate <= 0)
+			throw new IllegalArgumentException("Bad length or sample rate");
+
+		DoubleBuffer[] segments = new DoubleBuffer[segmentCount(length)];
+		for(int s = 0; s < segments.length; s++) {
+			int n = (int)Math.min(SEGMENT, length - (long)s * SEGMENT);
+			segments[s] = ByteBuffer.allocateDirect(n * 8).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+		}
+
+		return new OffHeapSignal(segments, length, sampleRate, null, null);
+	}
+
+	/**
+	 * Signal of LENGTH samples backed by the file at PATH, created (or extended with zeros)
+	 * if needed. Samples are raw doubles in native byte order; changes go to the file, which
+	 * keeps them after close(), so a signal can be mapped again later.
+	 */
+	public static OffHeapSignal map(String path, long length, int sampleRate) throws Exception {
+		if(length < 0 || sampleRate <= 0)
+			throw new IllegalArgumentException("Bad length or sample rate");
+
+		RandomAccessFile file = new RandomAccessFile(path, "rw");
+		FileChannel channel = file.getChannel();
+		try {
+			if(file.length() < length * 8) file.setLength(length * 8);
+
+			DoubleBuffer[] segments = new DoubleBuffer[segmentCount(length)];
+			MappedByteBuffer[] regions = new MappedByteBuffer[segments.length];
+			for(int s = 0; s < segments.length; s++) {
+				long start = (long)s * SEGMENT;
+				int n = (int)Math.min(SEGMENT, length - start);
+				regions[s] = channel.map(FileChannel.MapMode.READ_WRITE, start * 8, (long)n * 8);
+				segments[s] = regions[s].order(ByteOrder.nativeOrder()).asDoubleBuffer();
+			}
+
+			return new OffHeapSignal(segments, length, sampleRate, channel, regions);
+		} catch(Exception e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Off heap copy of S.
+	 */
+	public static OffHeapSignal of(Signal s) {
+		OffHeapSignal out = allocate(s.size(), s.getSampleRate());
+		double[] block = new double[(int)Math.min(BLOCK, out.length)];
+
+		for(long i = 0; i < out.length; i += BLOCK) {
+			int len = (int)Math.min(BLOCK, out.length - i);
+			s.copyInto((int)i, block, 0, len);
+			out.write(i, block, 0, len);
+		}
+		return out;
+	}
+
+	private static int segmentCount(long length) {
+		long n = (length + SEGMENT - 1) / SEGMENT;
+		if(n > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Signal too long");
+		return (int)n;
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Access methods -----------------------------------------
+	//------------------------------------------------------------------------------------
+	public long size() 				{ return length; }
+	public int 	getSampleRate() 	{ return sampleRate; }
+	public boolean isMapped() 		{ return channel != null; }
+
+	public void setSampleRate(int s) {
+		if(s > 0) this.sampleRate = s;
+	}
+
+	/**
+	 * Sample at I, or NaN if I is out of the signal (as Signal.at()).
+	 */
+	public double at(long i) {
+		if(i < 0 || i >= length) return Double.NaN;
+		return segments[(int)(i / SEGMENT)].get((int)(i % SEGMENT));
+	}
+
+	public void set(long i, double value) {
+		if(i < 0 || i >= length)
+			throw new IndexOutOfBoundsException("Sample " + i + " out of signal");
+		segments[(int)(i / SEGMENT)].put((int)(i % SEGMENT), value);
+	}
+
+	/**
+	 * Copies LEN samples, starting at FROM, to TARGET starting at OFFSET.
+	 */
+	public void read(long from, double[] target, int offset, int len) {
+		checkRange(from, len);
+		while(len > 0) {
+			DoubleBuffer seg = segments[(int)(from / SEGMENT)].duplicate();
+			int pos = (int)(from % SEGMENT);
+			int n = Math.min(len, seg.capacity() - pos);
+
+			seg.position(pos);
+			seg.get(target, offset, n);
+			from += n; offset += n; len -= n;
+		}
+	}
+
+	/**
+	 * Copies LEN samples of SOURCE, starting at OFFSET, to the signal starting at TO.
+	 */
+	public void write(long to, double[] source, int offset, int len) {
+		checkRange(to, len);
+		while(len > 0) {
+			DoubleBuffer seg = segments[(int)(to / SEGMENT)].duplicate();
+			int pos = (int)(to % SEGMENT);
+			int n = Math.min(len, seg.capacity() - pos);
+
+			seg.position(pos);
+			seg.put(source, offset, n);
+			to += n; offset += n; len -= n;
+		}
+	}
+
+	/**
+	 * Regular signal with LEN samples, starting at FROM.
+	 */
+	public Signal slice(long from, int len) {
+		double[] samples = new double[len];
+		read(from, samples, 0, len);
+		return new Signal(samples, len, sampleRate);
+	}
+
+	private void checkRange(long from, int len) {
+		if(from < 0 || len < 0 || from + len > length)
+			throw new IndexOutOfBoundsException("Range [" + from + ", " + (from + len) + ") out of signal");
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Operations ---------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * Fills the signal with samples rendered by SOURCE, block by block.
+	 */
+	public void render(BlockSource source) throws Exception {
+		double[] block = new double[BLOCK];
+		for(long i = 0; i < length; i += BLOCK) {
+			int len = (int)Math.min(BLOCK, length - i);
+			source.render(block, 0, len);
+			write(i, block, 0, len);
+		}
+	}
+
+	public void scalarMultiply(double scalar) {
+		double[] block = new double[BLOCK];
+		for(long i = 0; i < length; i += BLOCK) {
+			int len = (int)Math.min(BLOCK, length - i);
+			read(i, block, 0, len);
+			for(int k = 0; k < len; k++)
+				block[k] *= scalar;
+			write(i, block, 0, len);
+		}
+	}
+
+	/**
+	 * Signal = Signal + S, S shifted by OFFSET, as Signal.add(). Ignored if S doesn't fit.
+	 */
+	public void add(OffHeapSignal S, long offset) {
+		if(offset < 0 || S.length + offset > length) return;
+
+		double[] block = new double[BLOCK], other = new double[BLOCK];
+		for(long i = 0; i < S.length; i += BLOCK) {
+			int len = (int)Math.min(BLOCK, S.length - i);
+			S.read(i, other, 0, len);
+			read(offset + i, block, 0, len);
+			for(int k = 0; k < len; k++)
+				block[k] += other[k];
+			write(offset + i, block, 0, len);
+		}
+	}
+
+	public void add(OffHeapSignal S) { add(S, 0); }
+
+	/**
+	 * Same as add(OffHeapSignal, long), for a regular signal.
+	 */
+	public void add(Signal S, long offset) {
+		int n = S.size();
+		if(offset < 0 || n + offset > length) return;
+
+		double[] block = new double[BLOCK], other = new double[BLOCK];
+		for(int i = 0; i < n; i += BLOCK) {
+			int len = Math.min(BLOCK, n - i);
+			S.copyInto(i, other, 0, len);
+			read(offset + i, block, 0, len);
+			for(int k = 0; k < len; k++)
+				block[k] += other[k];
+			write(offset + i, block, 0, len);
+		}
+	}
+
+	/**
+	 * Greatest absolute value of the samples (0 if there's none).
+	 */
+	public double peak() {
+		double[] block = new double[BLOCK];
+		double max = 0.0;
+		for(long i = 0; i < length; i += BLOCK) {
+			int len = (int)Math.min(BLOCK, length - i);
+			read(i, block, 0, len);
+			for(int k = 0; k < len; k++)
+				max = Math.max(max, Math.abs(block[k]));
+		}
+		return max;
+	}
+
+	/**
+	 * Scales the signal so its peak is 1. A silent signal is left as it is.
+	 */
+	public void normalize() {
+		double max = peak();
+		if(max > 0.0) scalarMultiply(1.0 / max);
+	}
+
+	/**
+	 * Runs the whole signal through P, in place, block by block: the result is P's
+	 * streaming output (for a LinearFilter, as process(), i.e., delayed by half the
+	 * filter length). P's state isn't reset before or after.
+	 */
+	public void filter(BlockProcessor p) throws Exception {
+		double[] block = new double[BLOCK];
+		for(long i = 0; i < length; i += BLOCK) {
+			int len = (int)Math.min(BLOCK, length - i);
+			read(i, block, 0, len);
+			p.process(block, block, len);
+			write(i, block, 0, len);
+		}
+	}
+
+	/**
+	 * Streams the signal to a wave file, block by block.
+	 */
+	public void writeToWAVE(String filepath, SampleSize size) throws Exception {
+		double[] block = new double[BLOCK];
+
+		try(WAVEWriter writer = new WAVEWriter(sampleRate, size, 1)) {
+			writer.open(filepath);
+			for(long i = 0; i < length; i += BLOCK) {
+				int len = (int)Math.min(BLOCK, length - i);
+				read(i, block, 0, len);
+				writer.write(block, 0, len);
+			}
+		}
+	}
+
+	/**
+	 * For mapped signals, writes changes to the file and closes it. Direct memory is given
+	 * back when the signal is garbage collected. The signal must not be used afterwards.
+	 * @throws UncheckedIOException If the file couldn't be closed
+	 */
+	@Override
+	public void close() {
+		if(channel == null) return;
+
+		try {
+			for(MappedByteBuffer region: regions)
+				region.force();
+			channel.close();
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			channel = null;
+			regions = null;
+		}
+	}
+
+	/**
+	 * Test driver: a signal longer than an int can index, mapped to a temporary file,
+	 * rendered, filtered, normalized and checked at both ends.
+	 */
+	public static void main(String[] args) throws Exception {
+		int sampleRate = 96000;
+		long n = (1L << 31) + 1000;
+
+		java.io.File file = java.io.File.createTempFile("offheap", ".raw");
+		file.deleteOnExit();
+
+		try(OffHeapSignal s = map(file.getPath(), n, sampleRate)) {
+			System.out.println(s.size() + " samples (" + n * 8 / (1 << 30) + " GB, "
+					+ n / sampleRate / 3600.0 + " h at " + sampleRate + " Hz), mapped to " + file);
+
+			long t0 = System.nanoTime();
+			SineSynth synth = new SineSynth(sampleRate);
+			synth.setFrequency(440);
+			s.render(synth);
+			long t1 = System.nanoTime();
+
+			s.scalarMultiply(3.0);
+			s.filter(new Biquad(Biquad.Type.LOWPASS, 2000, 1.0, sampleRate));
+			s.normalize();
+			long t2 = System.nanoTime();
+
+			System.out.println("Rendered in " + (t1 - t0) / 1e9 + " s, multiplied, filtered and normalized in "
+					+ (t2 - t1) / 1e9 + " s");
+			System.out.println("Peak " + s.peak() + ", last samples " + s.slice(n - 4, 4));
+		}
+	}
+}
@@ -0,0 +1,319 @@
+package synthExperiments;
+
+/**
+ * Polyphonic engine: a fixed pool of voices, each one a copy of a prototype Synthesizer,
+ * played by note on/note off events and mixed block by block in a single output buffer.
+ *
+ * Everything is allocated by the constructor: voices, the event queue and the block buffer.
+ * render() allocates nothing, so it can run in a real time thread.
+ * Events carry the time (in samples, counted from the first render()) where they happen
+ * and are applied at that exact sample, even in the middle of a block.
+ */
+public class PolySynth implements BlockSource {
+
+	private static final int IDLE = 0, PLAYING = 1, RELEASED = 2;
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Voices -------------------------------------------------
+	//------------------------------------------------------------------------------------
+	private final Synthesizer[] voices;
+	private final int[] 		voiceState;
+	private final int[] 		voiceKey;
+	private final double[] 		voiceGain;
+	private final double[] 		voiceEnvelope;
+	private final long[] 		voiceStart;
+
+	/**
+	 * Linear attack and release, as envelope change per sample.
+	 */
+	private double attackStep, releaseStep;
+
+	/**
+	 * Where each voice renders before being mixed in the output.
+	 */
+	private final double[] block;
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Events -------------------------------------------------
+	//------------------------------------------------------------------------------------
+	/**
+	 * Pending events, sorted by time: a ring buffer of parallel arrays.
+	 */
+	private final long[] 		eventTime;
+	private final int[] 		eventKey;
+	private final double[] 		eventFrequency;
+	private final double[] 		eventVelocity;
+	private final boolean[] 	eventOn;
+	private int 				eventHead, eventCount;
+
+	/**
+	 * Time of the next sample render() will produce.
+	 */
+	private long position;
+
+	private final int samplingFreq;
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Constructors -------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * @param prototype Synthesizer each voice will be a copy of.
+	 * @param nVoices Maximum number of notes sounding at the same time.
+	 * @param maxEvents Maximum number of pending events.
+	 */
+	public PolySynth(Synthesizer prototype, int nVoices, int maxEvents) {
+		samplingFreq = prototype.getSamplingFreq();
+
+		voices = new Synthesizer[nVoices];
+		for(int v = 0; v < nVoices; v++)
+			voices[v] = prototype.clone();
+
+		voiceState = new int[nVoices];
+		voiceKey = new int[nVoices];
+		voiceGain = new double[nVoices];
+		voiceEnvelope = new double[nVoices];
+		voiceStart = new long[nVoices];
+
+		eventTime = new long[maxEvents];
+		eventKey = new int[maxEvents];
+		eventFrequency = new double[maxEvents];
+		eventVelocity = new double[maxEvents];
+		eventOn = new boolean[maxEvents];
+
+		block = new double[1024];
+
+		setAttack(0.005);
+		setRelease(0.05);
+	}
+
+	public PolySynth(Synthesizer prototype, int nVoices) {
+		this(prototype, nVoices, 4096);
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Access methods -----------------------------------------
+	//------------------------------------------------------------------------------------
+	public int 	getSamplingFreq() 	{ return samplingFreq; }
+	public int 	getNumVoices() 		{ return voices.length; }
+	public long getPosition() 		{ return position; }
+
+	/**
+	 * Number of voices currently sounding (playing or releasing).
+	 */
+	public int getActiveVoices() {
+		int n = 0;
+		for(int v = 0; v < voices.length; v++)
+			if(voiceState[v] != IDLE) n++;
+		return n;
+	}
+
+	/**
+	 * Attack time, in seconds. Zero starts notes at full gain (and may click).
+	 */
+	public void setAttack(double seconds) {
+		attackStep = (seconds > 0) ? 1.0 / (seconds * samplingFreq) : 1.0;
+	}
+
+	/**
+	 * Release time, in seconds. Zero stops notes at once (and may click).
+	 */
+	public void setRelease(double seconds) {
+		releaseStep = (seconds > 0) ? 1.0 / (seconds * samplingFreq) : 1.0;
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Events -------------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * Schedules a note.
+	 * @param time Sample where the note starts. Times already rendered mean "as soon as possible".
+	 * @param key Identifies the note for noteOff() (a MIDI note number, for example)
+	 * @param frequency Frequency of the note, in range [0, samplingFreq/2]
+	 * @param velocity Gain of the note
+	 * @return FALSE if the event was dropped: the queue is full, or the frequency is out of
+	 * range (a voice can't play it).
+	 */
+	public boolean noteOn(long time, int key, double frequency, double velocity) {
+		if(!(frequency >= 0 && 2*frequency <= samplingFreq)) return false;
+		return schedule(time, true, key, frequency, velocity);
+	}
+
+	/**
+	 * Schedules the release of every voice playing KEY.
+	 * @return FALSE if the event queue is full and the event was dropped.
+	 */
+	public boolean noteOff(long time, int key) {
+		return schedule(time, false, key, 0.0, 0.0);
+	}
+
+	/**
+	 * Releases every voice now.
+	 */
+	public void allNotesOff() {
+		for(int v = 0; v < voices.length; v++)
+			if(voiceState[v] == PLAYING) voiceState[v] = RELEASED;
+	}
+
+	/**
+	 * Inserts an event keeping the queue sorted by time. Events usually arrive in order,
+	 * so this is O(1) most of the time.
+	 */
+	private boolean schedule(long time, boolean on, int key, double frequency, double velocity) {
+		int capacity = eventTime.length;
+		if(eventCount == capacity) return false;
+
+		//Shift later events one position to open room (after events with the same time)
+		int i = eventCount;
+		while(i > 0) {
+			int prev = (eventHead + i - 1) % capacity;
+			if(eventTime[prev] <= time) break;
+
+			int cur = (eventHead + i) % capacity;
+			eventTime[cur] = eventTime[prev];
+			eventOn[cur] = eventOn[prev];
+			eventKey[cur] = eventKey[prev];
+			eventFrequency[cur] = eventFrequency[prev];
+			eventVelocity[cur] = eventVelocity[prev];
+			i--;
+		}
+
+		int slot = (eventHead + i) % capacity;
+		eventTime[slot] = time;
+		eventOn[slot] = on;
+		eventKey[slot] = key;
+		eventFrequency[slot] = frequency;
+		eventVelocity[slot] = velocity;
+		eventCount++;
+		return true;
+	}
+
+	private void applyEvent(int e) {
+		if(eventOn[e]) {
+			int v = allocateVoice();
+			voices[v].setFrequency(eventFrequency[e]);
+			voices[v].setPhase(0.0);
+			voiceState[v] = PLAYING;
+			voiceKey[v] = eventKey[e];
+			voiceGain[v] = eventVelocity[e];
+			voiceEnvelope[v] = 0.0;
+			voiceStart[v] = position;
+		}
+		else {
+			for(int v = 0; v < voices.length; v++)
+				if(voiceState[v] == PLAYING && voiceKey[v] == eventKey[e])
+					voiceState[v] = RELEASED;
+		}
+	}
+
+	/**
+	 * A free voice if there is one. Otherwise, steals the oldest voice.
+	 */
+	private int allocateVoice() {
+		int oldest = 0;
+		for(int v = 0; v < voices.length; v++) {
+			if(voiceState[v] == IDLE) return v;
+			if(voiceStart[v] < voiceStart[oldest]) oldest = v;
+		}
+		return oldest;
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Rendering ----------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * Renders the next LEN samples, all voices mixed, in OUT starting at OFF.
+	 * Pending events are applied at the sample they were scheduled for.
+	 */
+	public void render(double[] out, int off, int len) {
+		for(int i = off; i < off + len; i++)
+			out[i] = 0.0;
+
+		int done = 0;
+		while(done < len) {
+			//Apply events due now
+			while(eventCount > 0 && eventTime[eventHead] <= position) {
+				applyEvent(eventHead);
+				eventHead = (eventHead + 1) % eventTime.length;
+				eventCount--;
+			}
+
+			//Render until next event, end of request or end of our block buffer
+			int n = Math.min(len - done, block.length);
+			if(eventCount > 0)
+				n = (int)Math.min(n, eventTime[eventHead] - position);
+
+			for(int v = 0; v < voices.length; v++)
+				if(voiceState[v] != IDLE)
+					mixVoice(v, out, off + done, n);
+
+			done += n;
+			position += n;
+		}
+	}
+
+	/**
+	 * Renders N samples of voice V and adds them to OUT, applying gain and envelope.
+	 */
+	private void mixVoice(int v, double[] out, int off, int n) {
+		voices[v].render(block, 0, n);
+
+		double gain = voiceGain[v];
+		double env = voiceEnvelope[v];
+
+		if(voiceState[v] == PLAYING) {
+			for(int i = 0; i < n; i++) {
+				if(env < 1.0) env = Math.min(1.0, env + attackStep);
+				out[off + i] += block[i] * gain * env;
+			}
+		}
+		else {
+			for(int i = 0; i < n; i++) {
+				env -= releaseStep;
+				if(env <= 0.0) {
+					env = 0.0;
+					voiceState[v] = IDLE;
+					break;
+				}
+				out[off + i] += block[i] * gain * env;
+			}
+		}
+
+		voiceEnvelope[v] = env;
+	}
+
+	/**
+	 * Test driver: 256 voices (a few chords of sine partials) and how much faster than real time they render.
+	 */
+	public static void main(String[] args) {
+		int sampleFreq = 48000;
+		int nVoices = 256;
+		SineSynth prototype = new SineSynth(sampleFreq);
+		prototype.setInterpolation(Wavetable.Interpolation.LINEAR);
+		PolySynth poly = new PolySynth(prototype, nVoices);
+
+		//Every voice starts at a different sample, then all of them are released at 4 s
+		for(int v = 0; v < nVoices; v++) {
+			double f = 55.0 * Math.pow(2, (v % 64) / 12.0);
+			poly.noteOn(v * 137, v, Math.min(f, 20000), 1.0 / nVoices);
+			poly.noteOff(4 * sampleFreq + v, v);
+		}
+
+		int seconds = 5, blockSize = 256;
+		double[] out = new double[seconds * sampleFreq];
+
+		long t = System.nanoTime();
+		for(int i = 0; i < out.length; i += blockSize)
+			poly.render(out, i, Math.min(blockSize, out.length - i));
+		double elapsed = (System.nanoTime() - t) / 1e9;
+
+		System.out.println(nVoices + " voices, " + seconds + " s rendered in " + elapsed + " s ("
+				+ seconds / elapsed + "x real time), " + poly.getActiveVoices() + " voices left");
+
+		Signal s = new Signal(out);
+		s.setSampleRate(sampleFreq);
+		s.writeToWAVE("POLY.wav", SampleSize.S16BIT);
+	}
+}
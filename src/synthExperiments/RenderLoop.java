@@ -0,0 +1,155 @@
+package synthExperiments;
+
+import java.util.Arrays;
+
+/**
+ * Real time render loop: pulls fixed size blocks from a source, runs them through a chain
+ * of processors and pushes them to a sink. The sink paces the loop (a sound card blocks
+ * until it has room), so each block must be rendered in less than the time it takes to
+ * play, blockSize / sampleRate. How long each block took is recorded in a RenderStats.
+ *
+ * The loop allocates nothing: once it's running, any allocation comes from the source,
+ * the processors or the sink.
+ */
+public class RenderLoop {
+
+	private final BlockSource 	source;
+	private final AudioSink 	sink;
+	private BlockProcessor[] 	chain;
+
+	private final int 			sampleRate, blockSize;
+	private final double[] 		block;
+	private final RenderStats 	stats;
+
+	private volatile boolean 	running;
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Constructors -------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * @param source Where blocks come from
+	 * @param sink Where blocks go
+	 * @param sampleRate Sample rate of source and sink
+	 * @param blockSize Samples per block. Smaller blocks mean less latency and tighter deadlines.
+	 */
+	public RenderLoop(BlockSource source, AudioSink sink, int sampleRate, int blockSize) {
+		this.source = source;
+		this.sink = sink;
+		this.chain = new BlockProcessor[0];
+		this.sampleRate = sampleRate;
+		this.blockSize = blockSize;
+		this.block = new double[blockSize];
+		this.stats = new RenderStats(1 << 16, (long)blockSize * 1000000000L / sampleRate);
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Access methods -----------------------------------------
+	//------------------------------------------------------------------------------------
+	public int 			getSampleRate() 	{ return sampleRate; }
+	public int 			getBlockSize() 		{ return blockSize; }
+	public RenderStats 	getStats() 			{ return stats; }
+	public boolean 		isRunning() 		{ return running; }
+
+	/**
+	 * Appends a processor to the chain. Processors run in the order they were added.
+	 * Must not be called while the loop is running.
+	 * @return This loop, so calls can be chained
+	 */
+	public RenderLoop add(BlockProcessor processor) {
+		chain = Arrays.copyOf(chain, chain.length + 1);
+		chain[chain.length - 1] = processor;
+		return this;
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Operations ---------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * Opens the sink and renders until FRAMES samples were sent or stop() is called,
+	 * then closes the sink. Stats start from zero on each run.
+	 */
+	public void run(long frames) throws Exception {
+		sink.open(sampleRate, blockSize);
+		stats.reset();
+		running = true;
+
+		try {
+			for(long done = 0; running && done < frames; done += blockSize) {
+				int n = (int)Math.min(blockSize, frames - done);
+
+				long t0 = System.nanoTime();
+				source.render(block, 0, n);
+				for(BlockProcessor p: chain)
+					p.process(block, block, n);
+				stats.record(System.nanoTime() - t0);
+
+				sink.write(block, 0, n);
+			}
+		} finally {
+			running = false;
+			stats.setUnderruns(sink.getUnderruns());
+			sink.close();
+		}
+	}
+
+	/**
+	 * Runs the loop in a new thread, with maximum priority, until stop() is called.
+	 * Errors are reported in the standard error.
+	 */
+	public Thread start() {
+		Thread t = new Thread(() -> {
+			try {
+				run(Long.MAX_VALUE);
+			} catch(Exception e) {
+				System.err.println(e.getMessage());
+			}
+		}, "RenderLoop");
+
+		t.setPriority(Thread.MAX_PRIORITY);
+		t.start();
+		return t;
+	}
+
+	/**
+	 * Makes the loop return after the block it's rendering.
+	 */
+	public void stop() {
+		running = false;
+	}
+
+	/**
+	 * Test driver: 64 voices through a highpass filter, at several block sizes, against an
+	 * emulated sound card (or the real one, with argument "play").
+	 */
+	public static void main(String[] args) throws Exception {
+		int sampleRate = 48000;
+		boolean play = args.length > 0 && args[0].equals("play");
+
+		for(int blockSize: new int[] {64, 128, 256, 512}) {
+			SineSynth prototype = new SineSynth(sampleRate);
+			prototype.setInterpolation(Wavetable.Interpolation.LINEAR);
+
+			PolySynth poly = new PolySynth(prototype, 64);
+			for(int v = 0; v < 64; v++)
+				poly.noteOn(v * 480, v, 110.0 * Math.pow(2, (v % 24) / 12.0), 1.0 / 64);
+
+			HighpassFilter highpass = new HighpassFilter(200, 31, 1.0, sampleRate);
+
+			AudioSink sink = play ? new JavaSoundSink(4) : new NullSink(4);
+			RenderLoop loop = new RenderLoop(poly, sink, sampleRate, blockSize).add(highpass);
+			loop.run(2 * sampleRate);
+
+			System.out.println("Block " + blockSize + ": " + loop.getStats());
+		}
+
+		//Headless rendering to a file, as fast as possible
+		PolySynth poly = new PolySynth(new SineSynth(sampleRate), 8);
+		poly.noteOn(0, 0, 440, 0.5);
+		poly.noteOn(sampleRate / 2, 1, 660, 0.3);
+		RenderLoop loop = new RenderLoop(poly, new FileSink("LOOP.wav", SampleSize.S16BIT), sampleRate, 256);
+		loop.run(sampleRate);
+		System.out.println("File: " + loop.getStats());
+	}
+}
@@ -0,0 +1,102 @@
+package synthExperiments;
+
+import java.util.Arrays;
+
+/**
+ * Render time of each block of a RenderLoop, against its deadline: the time a block takes
+ * to play (blockSize / sampleRate). A block rendered after its deadline is a deadline miss;
+ * with a small device buffer it becomes an underrun (a gap in the sound).
+ *
+ * The last CAPACITY render times are kept for the percentiles; counters cover every block.
+ * record() allocates nothing, so it can be called from the render thread.
+ *
+ * Only one thread (the render thread) may call record(), reset() and setUnderruns(). Any
+ * thread may read the counters while it runs: they are volatile, so each one is up to date,
+ * though not all taken at the same instant. Percentiles read while recording are an estimate.
+ */
+public class RenderStats {
+
+	private final long[] 	times;
+	private final long 		deadline;
+	private volatile long 	blocks, deadlineMisses, underruns, totalTime, maxTime;
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Constructors -------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * @param capacity Number of render times kept for the percentiles
+	 * @param deadline Time available to render a block, in nanoseconds
+	 */
+	public RenderStats(int capacity, long deadline) {
+		this.times = new long[capacity];
+		this.deadline = deadline;
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Access methods -----------------------------------------
+	//------------------------------------------------------------------------------------
+	public long getBlocks() 			{ return blocks; }
+	public long getDeadlineMisses() 	{ return deadlineMisses; }
+	public long getUnderruns() 			{ return underruns; }
+	public void setUnderruns(long n) 	{ this.underruns = n; }
+
+	/**
+	 * Time available to render each block, in nanoseconds.
+	 */
+	public long getDeadline() 			{ return deadline; }
+
+	/**
+	 * Mean render time, in nanoseconds.
+	 */
+	public double getMean() {
+		long n = blocks;
+		return n == 0 ? 0.0 : (double)totalTime / n;
+	}
+
+	/**
+	 * Maximum render time, in nanoseconds.
+	 */
+	public long getMax() { return maxTime; }
+
+	/**
+	 * Render time not exceeded by P percent of the blocks kept, in nanoseconds (nearest rank).
+	 * @param p Percentile, in range [0,100]
+	 */
+	public long percentile(double p) {
+		int n = (int)Math.min(blocks, times.length);
+		if(n == 0) return 0;
+
+		long[] sorted = Arrays.copyOf(times, n);
+		Arrays.sort(sorted);
+
+		int rank = (int)Math.ceil(p / 100.0 * n) - 1;
+		return sorted[Math.max(0, Math.min(n - 1, rank))];
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Operations ---------------------------------------------
+	//------------------------------------------------------------------------------------
+	public void record(long time) {
+		times[(int)(blocks % times.length)] = time;
+		blocks++;
+		totalTime += time;
+		if(time > maxTime) maxTime = time;
+		if(time > deadline) deadlineMisses++;
+	}
+
+	/**
+	 * Forgets every block recorded. RenderLoop.run() calls it before rendering the first block.
+	 */
+	public void reset() {
+		blocks = deadlineMisses = underruns = totalTime = maxTime = 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d blocks, deadline %.3f ms; render time (ms): mean %.4f, p50 %.4f, p99 %.4f, p99.9 %.4f, max %.4f;"
+				+ " deadline misses: %d, underruns: %d",
+				blocks, deadline / 1e6, getMean() / 1e6, percentile(50) / 1e6, percentile(99) / 1e6,
+				percentile(99.9) / 1e6, maxTime / 1e6, deadlineMisses, underruns);
+	}
+}
@@ -0,0 +1,342 @@
+package synthExperiments;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Polyphase sample rate converter for any rational ratio outRate/inRate = L/M (reduced).
+ * Conceptually, the input is upsampled by L (zeros between samples), lowpass filtered and
+ * downsampled by M; here only the output samples are computed, each one as a dot product
+ * of 2H inputs with one of the L phases of the filter.
+ *
+ * The filter is a Kaiser windowed sinc with cutoff at 0.92 of the lower Nyquist frequency
+ * and about -80 dB of stopband. Its phases are computed once per ratio and kept in a
+ * bounded cache, shared by every resampler with that ratio.
+ *
+ * resample() converts a whole signal. For streams, build a Resampler and feed it blocks
+ * through process(); the filter looks H input samples ahead, so outputs are H inputs late
+ * and flush() produces the last ones. Streamed output is identical to resample()'s.
+ */
+public class Resampler {
+
+	/**
+	 * Half width of the filter, in input samples (when upsampling).
+	 */
+	public static final int HALF_WIDTH = 32;
+
+	/**
+	 * Maximum number of kernels (ratios) kept in cache.
+	 */
+	public static final int CACHE_SIZE = 16;
+
+	private static final double ROLLOFF = 0.92, KAISER_BETA = 8.0;
+
+	/**
+	 * Inputs per block when resampling a whole signal.
+	 */
+	private static final int CHUNK = 1 << 16;
+
+	private static final Map<Long, Kernel> cache = new LinkedHashMap<Long, Kernel>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Kernel> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	private final int 		inRate, outRate;
+	private final Kernel 	kernel;
+
+	/**
+	 * Inputs not consumed yet (plus the H before them), starting at absolute index bufStart.
+	 */
+	private double[] 	buf;
+	private int 		bufLen;
+	private long 		bufStart, totalIn, nextOut;
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Constructors -------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * Streaming converter from inRate to outRate.
+	 */
+	public Resampler(int inRate, int outRate) {
+		if(inRate <= 0 || outRate <= 0)
+			throw new IllegalArgumentException("Sample rates must be positive");
+
+		this.inRate = inRate;
+		this.outRate = outRate;
+
+		int g = gcd(inRate, outRate);
+		this.kernel = Kernel.get(outRate / g, inRate / g);
+		this.buf = new double[2 * kernel.H + 1024];
+		reset();
+	}
+
+	/**
+	 * Returns a new signal with S converted to sample rate OUTRATE.
+	 */
+	public static Signal resample(Signal s, int outRate) {
+		Resampler r = new Resampler(s.getSampleRate(), outRate);
+		int n = s.size();
+
+		double[] out = new double[(int)r.outputLength(n)];
+		double[] in = new double[Math.min(n, CHUNK)];
+
+		int produced = 0;
+		for(int i = 0; i < n; i += CHUNK) {
+			int len = Math.min(CHUNK, n - i);
+			s.copyInto(i, in, 0, len);
+			produced += r.process(in, 0, len, out, produced);
+		}
+		r.flush(out, produced);
+
+		return new Signal(out, out.length, outRate);
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Access methods -----------------------------------------
+	//------------------------------------------------------------------------------------
+	public int getInputRate() 	{ return inRate; }
+	public int getOutputRate() 	{ return outRate; }
+
+	/**
+	 * Number of output samples of a signal with N input samples: ceil(n * L / M).
+	 */
+	public long outputLength(long n) {
+		return (n * kernel.L + kernel.M - 1) / kernel.M;
+	}
+
+	/**
+	 * Room OUT needs for a process() call with LEN inputs (or for flush(), LEN = 0).
+	 */
+	public int maxOutput(int len) {
+		return (int)(((long)len + 2 * kernel.H) * kernel.L / kernel.M) + 2;
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Operations ---------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * Feeds LEN samples of IN, starting at OFF, and writes every output sample that can be
+	 * computed so far to OUT, starting at OUTOFF.
+	 * @return Number of samples written. OUT must have room for maxOutput(len).
+	 */
+	public int process(double[] in, int off, int len, double[] out, int outOff) {
+		append(in, off, len);
+		totalIn += len;
+		return produce(out, outOff, outputLength(totalIn), totalIn);
+	}
+
+	/**
+	 * Ends the stream: writes the outputs still waiting for inputs after the last one
+	 * (taken as zeros). After this, reset() before feeding a new stream.
+	 * @return Number of samples written. OUT must have room for maxOutput(0).
+	 */
+	public int flush(double[] out, int outOff) {
+		ensureRoom(kernel.H);
+		Arrays.fill(buf, bufLen, bufLen + kernel.H, 0.0);
+		bufLen += kernel.H;
+		return produce(out, outOff, outputLength(totalIn), totalIn + kernel.H);
+	}
+
+	/**
+	 * Forgets the stream, as if no sample had been fed yet.
+	 */
+	public void reset() {
+		//Inputs before the first one are zeros
+		Arrays.fill(buf, 0, kernel.H, 0.0);
+		bufLen = kernel.H;
+		bufStart = -kernel.H;
+		totalIn = 0;
+		nextOut = 0;
+	}
+
+	private void append(double[] in, int off, int len) {
+		ensureRoom(len);
+		System.arraycopy(in, off, buf, bufLen, len);
+		bufLen += len;
+	}
+
+	private void ensureRoom(int len) {
+		if(bufLen + len > buf.length)
+			buf = Arrays.copyOf(buf, Math.max(bufLen + len, buf.length * 3 / 2));
+	}
+
+	/**
+	 * Computes outputs while there are enough inputs (up to absolute index AVAILABLE) and
+	 * the end of the stream (output END) isn't reached, then drops inputs no longer needed.
+	 */
+	private int produce(double[] out, int outOff, long end, long available) {
+		final int L = kernel.L, M = kernel.M, H = kernel.H, taps = 2 * H;
+		final double[] coef = kernel.coef;
+		final double[] x = buf;
+
+		int count = 0;
+		long q = nextOut * M;
+		long n = nextOut;
+
+		while(n < end) {
+			long i0 = q / L;
+			if(i0 + H > available) break;
+
+			int p = (int)(q - i0 * L);
+			int base = (int)(i0 - H - bufStart);
+			int c = p * taps;
+
+			double sum = 0;
+			for(int m = 0; m < taps; m++)
+				sum += coef[c + m] * x[base + m];
+			out[outOff + count++] = sum;
+
+			n++;
+			q += M;
+		}
+		nextOut = n;
+
+		//Keep the inputs the next output needs
+		int drop = (int)(Math.min(q / L - H, bufStart + bufLen) - bufStart);
+		if(drop > 0) {
+			System.arraycopy(buf, drop, buf, 0, bufLen - drop);
+			bufLen -= drop;
+			bufStart += drop;
+		}
+
+		return count;
+	}
+
+	private static int gcd(int a, int b) {
+		while(b != 0) {
+			int t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+
+	/**
+	 * The L phases of the filter for ratio L/M, 2H taps each, in coef[p*2H .. p*2H+2H).
+	 * Tap m of phase p multiplies input i0 - H + m, for the output at input position i0 + p/L.
+	 */
+	private static final class Kernel {
+		final int 		L, M, H;
+		final double[] 	coef;
+
+		static Kernel get(int L, int M) {
+			Long key = ((long)L << 32) | M;
+
+			synchronized(cache) {
+				Kernel k = cache.get(key);
+				if(k != null) return k;
+			}
+
+			//Built outside the lock so big kernels don't block everyone else
+			Kernel kernel = new Kernel(L, M);
+
+			synchronized(cache) {
+				Kernel other = cache.get(key);
+				if(other != null) return other;
+				cache.put(key, kernel);
+			}
+			return kernel;
+		}
+
+		private Kernel(int L, int M) {
+			this.L = L;
+			this.M = M;
+
+			//When downsampling, cutoff goes down by L/M and the filter gets longer by M/L
+			double scale = Math.min(1.0, (double)L / M);
+			this.H = (int)Math.ceil(HALF_WIDTH / scale);
+
+			double fc = 0.5 * scale * ROLLOFF;
+			int taps = 2 * H;
+			coef = new double[L * taps];
+			double i0Beta = besselI0(KAISER_BETA);
+
+			for(int p = 0; p < L; p++) {
+				double sum = 0;
+				for(int m = 0; m < taps; m++) {
+					//Distance, in input samples, from the output to the input of this tap
+					double t = (double)p / L + H - m;
+					double r = t / H;
+					double w = (Math.abs(r) >= 1.0) ? 0.0 : besselI0(KAISER_BETA * Math.sqrt(1 - r * r)) / i0Beta;
+
+					double arg = 2 * fc * t;
+					double sinc = (arg == 0) ? 1.0 : Math.sin(Math.PI * arg) / (Math.PI * arg);
+
+					coef[p * taps + m] = 2 * fc * sinc * w;
+					sum += coef[p * taps + m];
+				}
+
+				//Unit gain at DC for every phase
+				for(int m = 0; m < taps; m++)
+					coef[p * taps + m] /= sum;
+			}
+		}
+
+		/**
+		 * Modified Bessel function of the first kind, order 0 (power series).
+		 */
+		private static double besselI0(double x) {
+			double sum = 1, term = 1, y = x * x / 4;
+			for(int k = 1; term > 1e-12 * sum; k++) {
+				term *= y / ((double)k * k);
+				sum += term;
+			}
+			return sum;
+		}
+	}
+
+	/**
+	 * Test driver: accuracy on a sine, streaming against whole signal, and throughput.
+	 */
+	public static void main(String[] args) {
+		int[][] ratios = { {44100, 48000}, {48000, 44100}, {48000, 8000}, {8000, 48000} };
+
+		for(int[] ratio: ratios) {
+			int inRate = ratio[0], outRate = ratio[1];
+			int n = 10 * inRate;
+
+			double[] x = new double[n];
+			for(int i = 0; i < n; i++)
+				x[i] = Math.sin(2 * Math.PI * 1000.0 * i / inRate);
+			Signal s = new Signal(x, n, inRate);
+
+			Signal y = resample(s, outRate);
+
+			//Error against the exact sine at the output rate, away from the edges
+			double err = 0;
+			for(int i = 1000; i < y.size() - 1000; i++)
+				err = Math.max(err, Math.abs(y.at(i) - Math.sin(2 * Math.PI * 1000.0 * i / outRate)));
+
+			//Streaming, in blocks of varying size
+			Resampler r = new Resampler(inRate, outRate);
+			double[] streamed = new double[y.size() + r.maxOutput(0)];
+			int produced = 0;
+			for(int i = 0, len = 1; i < n; i += len, len = len % 1000 + 37) {
+				len = Math.min(len, n - i);
+				double[] block = Arrays.copyOfRange(x, i, i + len);
+				produced += r.process(block, 0, len, streamed, produced);
+			}
+			produced += r.flush(streamed, produced);
+			boolean same = produced == y.size()
+					&& Arrays.equals(Arrays.copyOf(streamed, produced), y.toArray());
+
+			//Throughput
+			int rounds = 10;
+			long t0 = System.nanoTime();
+			for(int k = 0; k < rounds; k++)
+				resample(s, outRate);
+			double seconds = (System.nanoTime() - t0) / 1e9;
+
+			System.out.println(inRate + " -> " + outRate + ": " + y.size() + " samples, max error " + err
+					+ ", streaming identical: " + same + ", " + (long)(rounds * (double)y.size() / seconds / 1e6)
+					+ " M output samples/s (" + (long)(rounds * 10 / seconds) + "x real time)");
+		}
+	}
+}
@@ -0,0 +1,325 @@
+package synthExperiments;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Short-time Fourier transform: the signal is cut in frames of SIZE samples, HOP samples
+ * apart, each one multiplied by a window and transformed. The inverse transform takes the
+ * frames back to time, windows them again and overlap-adds them, dividing by the sum of
+ * the squared windows (weighted overlap-add), so synthesize(analyze(s)) == s for any
+ * window and any hop <= size, as long as the window isn't zero where the frames overlap.
+ * Frames start size-hop samples before the signal (and end as far after it), so its
+ * first and last samples are overlapped as much as the others: frame f starts at sample
+ * f.hop - (size - hop).
+ *
+ * Signals are real, so frames are transformed two at a time, packed in one complex FFT.
+ * Both directions may run in parallel in a ForkJoinPool; each thread reuses its own work
+ * buffers, so there's no allocation per frame.
+ */
+public class STFT {
+
+	/**
+	 * Frames per task when running in parallel.
+	 */
+	private static final int CHUNK = 32;
+
+	private final int 		size, hop;
+	private final double[] 	window;
+
+	/**
+	 * Per thread FFT buffers, real and imaginary parts.
+	 */
+	private final ThreadLocal<double[][]> work;
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Constructors -------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * @param size Samples per frame, i.e., size of the FFT. Powers of two are faster.
+	 * @param hop Samples between the start of two consecutive frames, 0 < hop <= size
+	 * @param window Window applied to each frame (analysis and synthesis), SIZE samples
+	 */
+	public STFT(int size, int hop, Signal window) {
+		if(size < 2 || hop <= 0 || hop > size)
+			throw new IllegalArgumentException("Need size >= 2 and 0 < hop <= size");
+		if(window.size() != size)
+			throw new IllegalArgumentException("Window must have " + size + " samples");
+
+		this.size = size;
+		this.hop = hop;
+		this.window = window.toArray();
+		this.work = ThreadLocal.withInitial(() -> new double[2][size]);
+	}
+
+	/**
+	 * STFT with a Hann window.
+	 */
+	public STFT(int size, int hop) {
+		this(size, hop, DSPMath.hannWindow(size));
+	}
+
+	public int getSize() 	{ return size; }
+	public int getHop() 	{ return hop; }
+
+	/**
+	 * Number of frames needed to cover N samples.
+	 */
+	public int frames(int n) {
+		return (Math.max(n, 1) - 1 + size - hop) / hop + 1;
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Operations ---------------------------------------------
+	//------------------------------------------------------------------------------------
+	public Spectrogram analyze(Signal s) {
+		return analyze(s, null);
+	}
+
+	/**
+	 * Spectrogram of S.
+	 * @param pool Pool processing the frames. If null, runs sequentially.
+	 */
+	public Spectrogram analyze(Signal s, ForkJoinPool pool) {
+		double[] x = s.toArray();
+		int frames = frames(x.length), bins = size / 2 + 1;
+
+		float[][] re = new float[frames][bins], im = new float[frames][bins];
+		Spectrogram spec = new Spectrogram(re, im, size, hop, s.getSampleRate(), x.length);
+
+		run(new Frames(this, x, null, spec, 0, chunks(frames), -1), pool);
+		return spec;
+	}
+
+	public Signal synthesize(Spectrogram spec) {
+		return synthesize(spec, null);
+	}
+
+	/**
+	 * Inverse transform: the signal whose spectrogram is SPEC. SPEC must have been made with
+	 * the same size and hop (and usually window) as this STFT.
+	 * @param pool Pool processing the frames. If null, runs sequentially.
+	 */
+	public Signal synthesize(Spectrogram spec, ForkJoinPool pool) {
+		if(spec.getSize() != size || spec.getHop() != hop)
+			throw new IllegalArgumentException("Spectrogram was made with another size or hop");
+
+		int n = spec.getLength();
+		double[] out = new double[n], norm = new double[n];
+
+		//Chunks far enough apart don't overlap: add even chunks, then odd chunks
+		int chunks = chunks(spec.getFrames());
+		for(int parity = 0; parity < 2; parity++)
+			run(new Frames(this, out, norm, spec, 0, chunks, parity), pool);
+
+		for(int i = 0; i < n; i++)
+			if(norm[i] > 1e-12) out[i] /= norm[i];
+
+		return new Signal(out, n, spec.getSampleRate());
+	}
+
+	private int chunks(int frames) {
+		return (frames + chunkFrames() - 1) / chunkFrames();
+	}
+
+	/**
+	 * Frames per chunk: even (frames are transformed in pairs) and covering at least SIZE
+	 * samples, so that chunks two apart never write to the same output samples.
+	 */
+	private int chunkFrames() {
+		int f = Math.max(CHUNK, (size + hop - 1) / hop);
+		return f + (f & 1);
+	}
+
+	private static void run(Frames task, ForkJoinPool pool) {
+		if(pool != null) {
+			pool.invoke(task);
+			return;
+		}
+
+		for(int c = task.from; c < task.to; c++)
+			task.chunk(c);
+	}
+
+	/**
+	 * Transforms frames [from, to) of X to SPEC, two per FFT.
+	 */
+	private void analyzeFrames(double[] x, Spectrogram spec, int from, int to) {
+		double[][] w = work.get();
+		double[] zr = w[0], zi = w[1];
+		float[][] re = spec.getReal(), im = spec.getImaginary();
+		int bins = size / 2 + 1;
+
+		for(int f = from; f < to; f += 2) {
+			boolean pair = f + 1 < to;
+			loadFrame(x, f, zr);
+			if(pair) loadFrame(x, f + 1, zi);
+			else Arrays.fill(zi, 0.0);
+
+			FFT.transform(zr, zi, size, false);
+
+			//Z = X1 + i.X2, with X1 and X2 hermitian: X1[k] = (Z[k] + conj(Z[-k]))/2,
+			//X2[k] = (Z[k] - conj(Z[-k]))/2i
+			for(int k = 0; k < bins; k++) {
+				int j = (k == 0) ? 0 : size - k;
+				double ar = zr[k], ai = zi[k], br = zr[j], bi = zi[j];
+
+				re[f][k] = (float)(0.5 * (ar + br));
+				im[f][k] = (float)(0.5 * (ai - bi));
+				if(pair) {
+					re[f + 1][k] = (float)(0.5 * (ai + bi));
+					im[f + 1][k] = (float)(0.5 * (br - ar));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Windowed samples of a frame. Samples out of the signal are zero.
+	 */
+	private void loadFrame(double[] x, int frame, double[] dst) {
+		int start = frame * hop - (size - hop);
+		int first = Math.max(0, -start), last = Math.max(first, Math.min(size, x.length - start));
+
+		Arrays.fill(dst, 0, first, 0.0);
+		for(int i = first; i < last; i++)
+			dst[i] = x[start + i] * window[i];
+		Arrays.fill(dst, last, size, 0.0);
+	}
+
+	/**
+	 * Takes frames [from, to) of SPEC back to time, two per FFT, and overlap-adds them,
+	 * windowed, to OUT. The squared window is added to NORM.
+	 */
+	private void synthesizeFrames(double[] out, double[] norm, Spectrogram spec, int from, int to) {
+		double[][] w = work.get();
+		double[] zr = w[0], zi = w[1];
+		float[][] re = spec.getReal(), im = spec.getImaginary();
+		int half = size / 2;
+
+		for(int f = from; f < to; f += 2) {
+			boolean pair = f + 1 < to;
+
+			//Z = X1 + i.X2, each one rebuilt from its bins 0..size/2 by symmetry
+			for(int k = 0; k < size; k++) {
+				int b = (k <= half) ? k : size - k;
+				double sign = (k <= half) ? 1.0 : -1.0;
+
+				double x1r = re[f][b], x1i = sign * im[f][b];
+				double x2r = pair ? re[f + 1][b] : 0.0, x2i = pair ? sign * im[f + 1][b] : 0.0;
+
+				zr[k] = x1r - x2i;
+				zi[k] = x1i + x2r;
+			}
+
+			FFT.transform(zr, zi, size, true);
+
+			overlapAdd(out, norm, f, zr);
+			if(pair) overlapAdd(out, norm, f + 1, zi);
+		}
+	}
+
+	private void overlapAdd(double[] out, double[] norm, int frame, double[] samples) {
+		int start = frame * hop - (size - hop);
+		int first = Math.max(0, -start), last = Math.min(size, out.length - start);
+		for(int i = first; i < last; i++) {
+			out[start + i] += samples[i] * window[i];
+			norm[start + i] += window[i] * window[i];
+		}
+	}
+
+	/**
+	 * Processes chunks [from, to) of frames, splitting them among the threads of the pool.
+	 * When PARITY is 0 or 1, only chunks with that parity are processed.
+	 */
+	private static final class Frames extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final STFT 			stft;
+		private final double[] 		samples, norm;
+		private final Spectrogram 	spec;
+		private final int 			from, to, parity;
+
+		/**
+		 * @param norm Sum of squared windows, for the inverse transform. Null for analysis.
+		 */
+		Frames(STFT stft, double[] samples, double[] norm, Spectrogram spec, int from, int to, int parity) {
+			this.stft = stft;
+			this.samples = samples; this.norm = norm;
+			this.spec = spec;
+			this.from = from; this.to = to;
+			this.parity = parity;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from > 1) {
+				int middle = (from + to) / 2;
+				invokeAll( new Frames(stft, samples, norm, spec, from, middle, parity),
+						   new Frames(stft, samples, norm, spec, middle, to, parity) );
+			}
+			else if(to > from)
+				chunk(from);
+		}
+
+		void chunk(int c) {
+			if(parity >= 0 && c % 2 != parity) return;
+
+			int first = c * stft.chunkFrames(), last = Math.min(first + stft.chunkFrames(), spec.getFrames());
+
+			if(norm != null)
+				stft.synthesizeFrames(samples, norm, spec, first, last);
+			else
+				stft.analyzeFrames(samples, spec, first, last);
+		}
+	}
+
+	/**
+	 * Test driver: spectrogram of a chirp, round trip error and timing, sequential and
+	 * in parallel.
+	 */
+	public static void main(String[] args) {
+		int sampleRate = 48000, n = 30 * sampleRate;
+
+		//Chirp from 100 Hz to 10 kHz
+		double[] x = new double[n];
+		for(int i = 0; i < n; i++) {
+			double t = (double)i / sampleRate;
+			x[i] = Math.sin(2 * Math.PI * (100 * t + (9900.0 / 30) / 2 * t * t));
+		}
+		Signal chirp = new Signal(x, n, sampleRate);
+
+		STFT stft = new STFT(2048, 512);
+		ForkJoinPool pool = new ForkJoinPool(4);
+
+		for(int pass = 0; pass < 2; pass++) {
+			long t0 = System.nanoTime();
+			Spectrogram spec = stft.analyze(chirp);
+			long t1 = System.nanoTime();
+			Signal back = stft.synthesize(spec);
+			long t2 = System.nanoTime();
+			Spectrogram specP = stft.analyze(chirp, pool);
+			long t3 = System.nanoTime();
+			Signal backP = stft.synthesize(specP, pool);
+			long t4 = System.nanoTime();
+
+			double err = 0;
+			for(int i = 0; i < n; i++)
+				err = Math.max(err, Math.abs(back.at(i) - x[i]));
+			boolean same = Arrays.equals(back.toArray(), backP.toArray());
+
+			System.out.println(spec.getFrames() + " frames: analysis " + (t1 - t0) / 1e6 + " ms, synthesis "
+					+ (t2 - t1) / 1e6 + " ms; on " + pool.getParallelism() + " threads " + (t3 - t2) / 1e6 + " ms, "
+					+ (t4 - t3) / 1e6 + " ms; round trip error " + err + ", parallel identical: " + same);
+
+			int peak = 0, frame = spec.getFrames() / 2;
+			for(int k = 0; k < spec.getBins(); k++)
+				if(spec.magnitude(frame, k) > spec.magnitude(frame, peak)) peak = k;
+			System.out.println("Peak at " + spec.timeOf(frame) + " s: " + spec.frequencyOf(peak) + " Hz");
+		}
+
+		pool.shutdown();
+	}
+}
@@ -0,0 +1,225 @@
+package synthExperiments;
+
+import java.util.Arrays;
+
+/**
+ * Element-wise and reduction kernels on sample arrays, used by Signal's operations and by
+ * Convolution.direct(). Each kernel has two versions:
+ *
+ * - Vectorized: VectorKernels, written with the Vector API (jdk.incubator.vector), works on
+ *   as many samples at a time as the widest SIMD registers hold. Sums add the lanes
+ *   separately, so they may differ from the scalar ones in the last bits; convolution
+ *   gives the same bits (each output adds the same products in the same order).
+ *
+ * - Scalar: plain loops, one sample at a time. Sums are bit-identical to what Signal
+ *   always computed. The direct convolution runs a few kernel taps at a time over a tile
+ *   of outputs (out[i] += h[k].x[i-k] for every i) instead of one dot product per output
+ *   over x backwards, which keeps the tile in cache; it adds the same products in the
+ *   same order as the dot products.
+ *
+ * The vector module is incubating: it's only there if the JVM runs with
+ * --add-modules jdk.incubator.vector. Without it, the scalar kernels are used and
+ * VectorKernels is never loaded. With it, vectorized kernels are the default; setVectorized()
+ * or the system property synthx.vectorized (-Dsynthx.vectorized=false) choose at runtime.
+ */
+public class SampleKernels {
+
+	/**
+	 * Outputs per tile of the convolution: the tile and the inputs it reads (TILE + m
+	 * samples) stay in L1 cache while the taps run over them.
+	 */
+	public static final int TILE = 512;
+
+	/**
+	 * TRUE if the Vector API is available.
+	 */
+	public static final boolean VECTOR_API = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+	private static volatile boolean vectorized =
+			VECTOR_API && !"false".equalsIgnoreCase(System.getProperty("synthx.vectorized"));
+
+	public static boolean isVectorized() { return vectorized; }
+
+	/**
+	 * Chooses vectorized or scalar kernels. Ignored (scalar kernels) without the Vector API.
+	 */
+	public static void setVectorized(boolean v) { vectorized = v && VECTOR_API; }
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Element-wise -------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * dst[dOff + i] += src[sOff + i], 0 <= i < n
+	 */
+	public static void add(double[] dst, int dOff, double[] src, int sOff, int n) {
+		if(vectorized) {
+			VectorKernels.add(dst, dOff, src, sOff, n);
+			return;
+		}
+		for(int i = 0; i < n; i++)
+			dst[dOff + i] += src[sOff + i];
+	}
+
+	/**
+	 * dst[dOff + i] *= src[sOff + i], 0 <= i < n
+	 */
+	public static void multiply(double[] dst, int dOff, double[] src, int sOff, int n) {
+		if(vectorized) {
+			VectorKernels.multiply(dst, dOff, src, sOff, n);
+			return;
+		}
+		for(int i = 0; i < n; i++)
+			dst[dOff + i] *= src[sOff + i];
+	}
+
+	/**
+	 * x[off + i] *= g, 0 <= i < n
+	 */
+	public static void scale(double[] x, int off, int n, double g) {
+		if(vectorized) {
+			VectorKernels.scale(x, off, n, g);
+			return;
+		}
+		for(int i = off; i < off + n; i++)
+			x[i] *= g;
+	}
+
+	/**
+	 * x[off + i] /= d, 0 <= i < n
+	 */
+	public static void divide(double[] x, int off, int n, double d) {
+		if(vectorized) {
+			VectorKernels.divide(x, off, n, d);
+			return;
+		}
+		for(int i = off; i < off + n; i++)
+			x[i] /= d;
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Reductions ---------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * Sum of x[off .. off+n).
+	 */
+	public static double sum(double[] x, int off, int n) {
+		if(vectorized) return VectorKernels.sum(x, off, n);
+
+		double acc = 0.0;
+		for(int i = off; i < off + n; i++)
+			acc += x[i];
+		return acc;
+	}
+
+	/**
+	 * Sum of (x[i] - mean)^2 over x[off .. off+n).
+	 */
+	public static double sumOfSquares(double[] x, int off, int n, double mean) {
+		if(vectorized) return VectorKernels.sumOfSquares(x, off, n, mean);
+
+		double acc = 0.0;
+		for(int i = off; i < off + n; i++)
+			acc += (x[i] - mean) * (x[i] - mean);
+		return acc;
+	}
+
+	/**
+	 * Greatest absolute value of x[off .. off+n), 0 if N is 0.
+	 */
+	public static double peak(double[] x, int off, int n) {
+		if(vectorized) return VectorKernels.peak(x, off, n);
+
+		double max = 0.0;
+		for(int i = off; i < off + n; i++)
+			if(Math.abs(x[i]) > max) max = Math.abs(x[i]);
+		return max;
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Convolution --------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * Direct causal convolution for outputs in [from, to):
+	 * out[i] = sum h[k].x[i-k], 0 <= k <= min(m-1, i). See Convolution.
+	 */
+	public static void convolve(double[] x, double[] h, int m, double[] out, int from, int to) {
+		//Outputs before m-1 use fewer taps
+		int full = Math.min(Math.max(from, m - 1), to);
+
+		for(int i = from; i < full; i++) {
+			double sum = 0;
+			int K = Math.min(m - 1, i);
+
+			for(int k = 0; k <= K; k++)
+				sum += h[k] * x[i-k];
+
+			out[i] = sum;
+		}
+
+		if(vectorized) {
+			VectorKernels.convolveFull(x, h, m, out, full, to);
+			return;
+		}
+
+		for(int t = full; t < to; t += TILE) {
+			int end = Math.min(t + TILE, to);
+			Arrays.fill(out, t, end, 0.0);
+
+			//4 taps per pass over the tile: a quarter of the loads and stores of OUT.
+			//Products are still added one by one, in order.
+			int k = 0;
+			for(; k + 4 <= m; k += 4) {
+				double h0 = h[k], h1 = h[k+1], h2 = h[k+2], h3 = h[k+3];
+				for(int i = t; i < end; i++) {
+					double o = out[i];
+					o += h0 * x[i-k];
+					o += h1 * x[i-k-1];
+					o += h2 * x[i-k-2];
+					o += h3 * x[i-k-3];
+					out[i] = o;
+				}
+			}
+			for(; k < m; k++) {
+				double hk = h[k];
+				for(int i = t; i < end; i++)
+					out[i] += hk * x[i-k];
+			}
+		}
+	}
+
+	/**
+	 * Test driver: vectorized and scalar kernels agree. Run it with
+	 * --add-modules jdk.incubator.vector, or both rounds are scalar.
+	 */
+	public static void main(String[] args) {
+		System.out.println("Vector API " + (VECTOR_API ? "available" : "not available"));
+
+		int n = 100003;
+		double[] x = new double[n], y = new double[n];
+		for(int i = 0; i < n; i++) {
+			x[i] = Math.random() * 2 - 1;
+			y[i] = Math.random() * 2 - 1;
+		}
+
+		double[][] results = new double[2][];
+		for(int v = 0; v < 2; v++) {
+			setVectorized(v == 1);
+			double[] conv = new double[n];
+			convolve(x, y, 37, conv, 0, n);
+
+			double[] r = { sum(x, 3, n - 3), sumOfSquares(x, 0, n, 0.1), peak(x, 1, n - 1), peak(x, 0, n) };
+			results[v] = Arrays.copyOf(r, r.length + n);
+			System.arraycopy(conv, 0, results[v], r.length, n);
+		}
+
+		System.out.println("sum: " + results[0][0] + " / " + results[1][0]);
+		System.out.println("sum of squares: " + results[0][1] + " / " + results[1][1]);
+		System.out.println("peak from 1: " + results[0][2] + " / " + results[1][2]);
+		System.out.println("peak: " + results[0][3] + " / " + results[1][3]);
+		System.out.println("convolution identical: " + Arrays.equals(
+				Arrays.copyOfRange(results[0], 4, 4 + n), Arrays.copyOfRange(results[1], 4, 4 + n)));
+	}
+}
@@ -4,14 +4,27 @@ public enum SampleSize {
 	U8BIT(1, false), 
 	S16BIT(2, true), 
 	S24BIT(3, true), 
-	S32BIT(4, true);
+	S32BIT(4, true),
+	F32BIT(4, true, true),
+	F64BIT(8, true, true);
 	
 	public final int 		value;
 	public final boolean 	signed;
 	
+	/**
+	 * IEEE floating point samples (WAVE_FORMAT_IEEE_FLOAT). They're stored as they are:
+	 * neither quantized nor clipped, so values out of [-1,1] survive.
+	 */
+	public final boolean 	floating;
+	
 	SampleSize(int v, boolean s) {
+		this(v, s, false);
+	}
+	
+	SampleSize(int v, boolean s, boolean f) {
 		this.value = v;
 		this.signed = s;
+		this.floating = f;
 	}
 	public long maxValue() {
 		
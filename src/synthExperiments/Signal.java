@@ -1,13 +1,20 @@
 package synthExperiments;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 import java.io.*;
 
 public class Signal {
 
-	protected ArrayList<Double> table;
+	/**
+	 * Samples are stored in a growable primitive table: only the first LENGTH
+	 * positions are valid, the rest is spare capacity used by appendAll() and
+	 * padWithZeros(). This avoids boxing every single sample in a Double.
+	 */
+	protected double[] 			table;
+	protected int 				length;
 	protected int 				sampleRate;
 	
 	//------------------------------------------------------------------------------------
@@ -15,14 +22,15 @@ public class Signal {
 	//------------------------------------------------------------------------------------
 	
 	/**
-	 * O(n) method. Avoid it if it is possible!
+	 * Bounds checked access. When running through the whole signal, prefer
+	 * toArray() or copyInto().
 	 */
 	public double at(int i) {
-		if(i >= table.size() || i < 0) return Double.NaN;
-		return table.get(i);
+		if(i >= length || i < 0) return Double.NaN;
+		return table[i];
 	}
 	
-	public int 	size() 						{ return table.size(); }
+	public int 	size() 						{ return length; }
 	public int 	getSampleRate() 			{ return sampleRate; }
 	public void setSampleRate(int s) { 
 		if(s > 0) sampleRate = s; 
@@ -37,10 +45,46 @@ public class Signal {
 	 * @param target Values will be copied to this location.
 	 */
 	public void cloneSamples(ArrayList<Double> target) {
+		load();
 		if(target == null) return;
 		
-		for( Iterator<Double> it = table.iterator(); it.hasNext(); )
-			target.add(it.next());
+		target.ensureCapacity(target.size() + length);
+		for(int i = 0; i < length; i++)
+			target.add(table[i]);
+	}
+
+	/**
+	 * Returns a copy of the samples as a primitive array of length size().
+	 */
+	public double[] toArray() {
+		load();
+		return Arrays.copyOf(table, length);
+	}
+
+	/**
+	 * Copies all samples to TARGET, starting at position OFFSET.
+	 * @param target Values will be copied to this location. Must have room for size() samples.
+	 * @param offset First position of target to be written.
+	 */
+	public void copyInto(double[] target, int offset) {
+		load();
+		System.arraycopy(table, 0, target, offset, length);
+	}
+
+	/**
+	 * Appends samples to the end of this signal. The table grows geometrically,
+	 * so appending block by block costs amortized O(1) per sample.
+	 * @param samples Values to append.
+	 */
+	public void appendAll(double[] samples) {
+		appendAll(samples, 0, samples.length);
+	}
+
+	public void appendAll(double[] samples, int offset, int len) {
+		load();
+		ensureCapacity(length + len);
+		System.arraycopy(samples, offset, table, length, len);
+		length += len;
 	}
 	
 	/**
@@ -64,11 +108,51 @@ public class Signal {
 		return (int)( f * size() / sampleRate );
 	}
 	
+	/**
+	 * Copies LEN samples, starting at sample FROM, to TARGET starting at position OFFSET.
+	 * Handy to run through long signals in chunks.
+	 */
+	public void copyInto(int from, double[] target, int offset, int len) {
+		load();
+		if(from < 0 || from + len > length)
+			throw new IndexOutOfBoundsException("Range [" + from + ", " + (from + len) + ") out of signal");
+		System.arraycopy(table, from, target, offset, len);
+	}
+	
+	/**
+	 * Called before any operation which needs the samples in TABLE. Signals that don't keep
+	 * their samples there (views over files, for example) override this to fill TABLE on
+	 * demand; regular signals have nothing to do.
+	 */
+	protected void load() {}
+	
+	/**
+	 * Makes sure the table can hold at least N samples without reallocating.
+	 */
+	protected void ensureCapacity(int N) {
+		if(N <= table.length) return;
+
+		int capacity = Math.max(N, table.length + (table.length >> 1) + 16);
+		table = Arrays.copyOf(table, capacity);
+	}
+
 	//------------------------------------------------------------------------------------
 	//--------------------------- Constructors -------------------------------------------	
 	//------------------------------------------------------------------------------------
 	public Signal(ArrayList<Double> table, int sampleRate) {
+		this(new double[table.size()], 0, sampleRate);
+
+		for(Double d: table)
+			this.table[length++] = d;
+	}
+
+	/**
+	 * Takes ownership of TABLE, i.e., no copy is made. Only the first LENGTH
+	 * positions are considered samples.
+	 */
+	protected Signal(double[] table, int length, int sampleRate) {
 		this.table = table;
+		this.length = length;
 		this.sampleRate = sampleRate;
 	}
 	
@@ -76,7 +160,7 @@ public class Signal {
 	 * Sets default sample rate to 8000 Hz and creates empty table
 	 */
 	public Signal() {
-		this(new ArrayList<Double>(), 8000);
+		this(new double[0], 0, 8000);
 	}
 	
 	/**
@@ -84,50 +168,31 @@ public class Signal {
 	 * @param signal An array of double which will be stored in this signal
 	 */
 	public Signal(double[] signal) {
-		this();
-		
-		for(double d: signal)
-			table.add(d);
+		this(signal.clone(), signal.length, 8000);
 	}
 	
 	//------------------------------------------------------------------------------------
 	//--------------------------- Operations ---------------------------------------------	
 	//------------------------------------------------------------------------------------
 	/**
-	 * Naïve implementation of Fast Fourier Transform, i. e., directy implementation of FFT's
-	 * definition.
+	 * Fourier transform of the samples through FFT (O(n log n) for any size).
+	 * Forward transform returns the magnitude of each bucket; inverse transform
+	 * takes the samples as a real spectrum and returns the real part of the result.
 	 */
 	protected Signal fastFourierTransform(boolean inverse) {
-		ArrayList<Double> out = new ArrayList<>();
-		int N = table.size();
+		load();
+		int N = length;
+		double[] re = Arrays.copyOf(table, N);
+		double[] im = new double[N];
 		
-		double theta = (inverse ? 1 : -1) * 2 * Math.PI / N;
+		FFT.transform(re, im, inverse);
 		
 		//Each bucket represents the amplitude of the component with frequency k/N Hz
-		for(int k = 0; k < N; k++) 
-		{
-			double sumReal = 0, sumIm = 0;
-			double thetaK = theta * k;
-			
-			for(int i = 0; i < N; i++) {
-				double arg = thetaK * i;
-				double mod = table.get(i);
-				
-				sumReal += mod*Math.cos(arg);
-				
-				if(!inverse)
-					sumIm += mod*Math.sin(arg);
-			}
-			
-			double res;
-			if(inverse)
-				res = sumReal / N;
-			else
-				res = Math.sqrt(sumReal*sumReal + sumIm*sumIm);
-			out.add( res );
-		}
+		if(!inverse)
+			for(int k = 0; k < N; k++)
+				re[k] = Math.sqrt(re[k]*re[k] + im[k]*im[k]);
 		
-		return new Signal( out, this.sampleRate );
+		return new Signal( re, N, this.sampleRate );
 	}
 	
 	
@@ -140,43 +205,63 @@ public class Signal {
 	}
 	
 	/**
-	 * Convolves This signal with S. The result is stored in This.
+	 * Convolves This signal with S. The result has the same length as This, i.e., it is
+	 * truncated after size() samples. Long operands (like filters with many taps) are
+	 * convolved through FFT, see Convolution.
 	 * @param S Our "operand".
 	 */
 	public Signal convolve(Signal S) {
+		load(); S.load();
 		
-		ArrayList<Double> out = new ArrayList<>();
-		
-		for(int i = 0; i < table.size(); i++) {
-			double sum = 0;
-			
-			for(int k = 0; k < S.size(); k++)
-			{
-				if(k > i) break;
-				sum += S.at(k) * table.get(i-k);
-			}
-			
-			out.add(sum);
-		}
+		double[] out = new double[length];
+		Convolution.convolve(table, length, S.table, S.length, out);
 		
-		return new Signal( out, this.sampleRate );
+		return new Signal( out, length, this.sampleRate );
 	}
 	
 	/**
-	 * Write signal to wave file
+	 * Same as convolve(S), but long signals are split in tiles convolved by the tasks of POOL.
+	 * The result is bit-identical to convolve(S).
+	 * @param S Our "operand".
+	 * @param pool Pool which will run the tiles (ForkJoinPool.commonPool() or one of our own).
+	 */
+	public Signal convolve(Signal S, ForkJoinPool pool) {
+		load(); S.load();
+		
+		double[] out = new double[length];
+		Convolution.convolve(table, length, S.table, S.length, out, pool);
+		
+		return new Signal( out, length, this.sampleRate );
+	}
+	
+	/**
+	 * Returns this signal converted to another sample rate (setSampleRate() only changes
+	 * the rate, not the samples). See Resampler.
+	 * @param rate New sample rate
+	 */
+	public Signal resample(int rate) {
+		load();
+		return Resampler.resample(this, rate);
+	}
+	
+	/**
+	 * Write signal to wave file. Samples out of range [-1,1] are clipped.
 	 * @param filepath File to save
 	 * @param size Number of bytes we'll use to sample each point.
 	 */
 	public void writeToWAVE(String filepath, SampleSize size) {
+		load();
 		WAVEWriter writer = new WAVEWriter(sampleRate, size, 1);
+		writer.setClipPolicy(ExtractSamples.ClipPolicy.CLIP);
 		
-		for(int i = 0; i < table.size(); i++)
-			writer.addSample(table.get(i));
-		
+		//Streamed straight to the file, no copy of the samples is kept in memory
 		try {
-			writer.writeWAVE(filepath);
+			writer.open(filepath);
+			writer.write(table, 0, length);
 		} catch(Exception e) {
 			System.err.println(e.getMessage());
+		} finally {
+			try { writer.close(); } catch(Exception e) { System.err.println(e.getMessage()); }
 		}
 	}
 	
@@ -187,9 +272,9 @@ public class Signal {
 	 * @param offset Shift signal.
 	 */
 	public void multiplyElements(Signal S, int offset) {
-		if(offset + S.size() > table.size()) return;
-		for(int i = 0; i < table.size(); i++)
-			table.set(i, table.get(i) * S.at(i));
+		load(); S.load();
+		if(offset + S.size() > length) return;
+		SampleKernels.multiply(table, offset, S.table, 0, S.length);
 	}
 	public void multiplyElements(Signal S) { multiplyElements(S, 0); }
 	
@@ -197,9 +282,9 @@ public class Signal {
 	 * Keep signal in the range [-1,1]
 	 */
 	public void normalize() {
+		load();
 		double max = max();
-		for(int i = 0; i < table.size(); i++)
-			table.set(i, table.get(i) / max);
+		if(max > 0.0) SampleKernels.divide(table, 0, length, max);
 	}
 	
 	/**
@@ -207,8 +292,8 @@ public class Signal {
 	 * @param scalar Scalar quantity
 	 */
 	public void scalarMultiply(double scalar) {
-		for(int i = 0; i < table.size(); i++)
-			table.set(i, table.get(i) * scalar);
+		load();
+		SampleKernels.scale(table, 0, length, scalar);
 	}
 	
 	/**
@@ -221,40 +306,56 @@ public class Signal {
 	 * then Signal length.
 	 */
 	public void add(Signal S, int offset) {
-		if(S.size() + offset > table.size()) return;
-		for(int i = 0; i < table.size(); i++)
-			table.set(offset+i, table.get(offset+i) + S.at(i));
+		load(); S.load();
+		if(S.size() + offset > length) return;
+		SampleKernels.add(table, offset, S.table, 0, S.length);
 	}
 	public void add(Signal S) { add(S, 0); }
 	
+	/**
+	 * Lazy versions of add(), multiplyElements() and scalarMultiply(): they build an
+	 * expression, evaluated in one pass by SignalExpression.toSignal(). This signal isn't
+	 * modified.
+	 */
+	public SignalExpression plus(Signal S, int offset) 	{ return SignalExpression.of(this).plus(S, offset); }
+	public SignalExpression plus(Signal S) 				{ return plus(S, 0); }
+	public SignalExpression times(Signal S, int offset) 	{ return SignalExpression.of(this).times(S, offset); }
+	public SignalExpression times(Signal S) 			{ return times(S, 0); }
+	public SignalExpression scale(double scalar) 		{ return SignalExpression.of(this).scale(scalar); }
+	
+	public SignalExpression plus(SignalExpression E, int offset) 	{ return SignalExpression.of(this).plus(E, offset); }
+	public SignalExpression plus(SignalExpression E) 				{ return plus(E, 0); }
+	public SignalExpression times(SignalExpression E, int offset) 	{ return SignalExpression.of(this).times(E, offset); }
+	public SignalExpression times(SignalExpression E) 				{ return times(E, 0); }
+	
 	/**
 	 * Get standards deviation of the samples in the signal. Useful
 	 * for evaluating signal-noise ratio.
 	 * @return Standard deviation of samples.
 	 */
 	public double stdDev() {
-		double mean = mean();
-		double acc = 0;
-		for(int i = 0; i < table.size(); i++)
-			acc += Math.pow(mean-table.get(i), 2);
-		return Math.sqrt(acc/(table.size()-1));
+		return stats().getStdDev();
 	}
 	
 	/**
-	 * Returns the sample with greatest ABSOLUTE value.
+	 * Returns the greatest ABSOLUTE value of the samples (0 for an empty signal).
 	 */
 	public double max() {
-		double max = Double.NEGATIVE_INFINITY;
-		for(int i = 1; i < table.size(); i++)
-			if(table.get(i) > max) max = table.get(i);
-		return max;
+		load();
+		return SampleKernels.peak(table, 0, length);
 	}
 	
 	protected double mean() {
-		double acc = 0.0;
-		for(int i = 0; i < table.size(); i++)
-			acc += table.get(i);
-		return acc/table.size();
+		load();
+		double acc = SampleKernels.sum(table, 0, length);
+		return acc/length;
+	}
+	
+	/**
+	 * Mean, variance, peak, RMS... of the samples, computed in one pass (see SignalStats).
+	 */
+	public SignalStats stats() {
+		return SignalStats.of(this);
 	}
 	
 	/**
@@ -262,11 +363,12 @@ public class Signal {
 	 * @param N Final length of signal
 	 */
 	public void padWithZeros(int N) {
-		int nZeros = N - table.size();
-		if(nZeros <= 0) return;
+		load();
+		if(N <= length) return;
 		
-		for(int i = 0; i < nZeros; i++)
-			table.add(0.0);
+		ensureCapacity(N);
+		Arrays.fill(table, length, N, 0.0);
+		length = N;
 	}
 	
 	/**
@@ -275,27 +377,24 @@ public class Signal {
 	 * @return A signal identical to the one copied but with no references.
 	 */
 	public Signal clone() {
-		return clone(table.size());
+		return clone(size());
 	}
 	
 	public Signal clone(int n) {
+		load();
 		
-		if(n > table.size()) n = table.size();
-		
-		ArrayList<Double> samples = new ArrayList<Double>(n);
-		
-		for(int i = 0; i < n; i++)
-			samples.add( this.table.get(i) );
+		if(n > length) n = length;
 		
-		return new Signal( samples, this.sampleRate );
+		return new Signal( Arrays.copyOf(table, n), n, this.sampleRate );
 	}
 	
 	@Override
 	public String toString() {
+		load();
 		StringBuilder sb = new StringBuilder();
 		
-		for(int i = 0; i < table.size(); i++)
-			sb.append(i + " " + table.get(i) + "\n");
+		for(int i = 0; i < length; i++)
+			sb.append(i + " " + table[i] + "\n");
 		
 		return sb.toString();
 	}
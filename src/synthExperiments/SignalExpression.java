@@ -0,0 +1,317 @@
+package synthExperiments;
+
+import java.util.Arrays;
+
+/**
+ * Lazy arithmetic on signals. a.plus(b).times(env).scale(g) doesn't compute anything: it
+ * builds a graph of operations, which toSignal() evaluates in a single pass. Chaining
+ * add(), multiplyElements() and scalarMultiply() makes a pass over the whole table per
+ * operation; here the graph is evaluated one block of BLOCK samples at a time, so the
+ * intermediate results stay in cache and each operand is read once, and the output is
+ * written once.
+ *
+ * Operands behave as in Signal: the length and sample rate are the left operand's. A
+ * right operand shifted by OFFSET only affects samples [offset, offset + its size), and
+ * is ignored if it doesn't fit in the left operand (like add() and multiplyElements()).
+ * Operand signals are read when the expression is evaluated, not when it's built.
+ */
+public abstract class SignalExpression {
+
+	/**
+	 * Samples per block: small enough that a few blocks stay in the L1/L2 cache.
+	 */
+	public static final int BLOCK = 2048;
+
+	protected final int size, sampleRate;
+
+	protected SignalExpression(int size, int sampleRate) {
+		this.size = size;
+		this.sampleRate = sampleRate;
+	}
+
+	/**
+	 * Expression whose value is S.
+	 */
+	public static SignalExpression of(Signal s) {
+		return new Leaf(s);
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Access methods -----------------------------------------
+	//------------------------------------------------------------------------------------
+	public int size() 			{ return size; }
+	public int getSampleRate() 	{ return sampleRate; }
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Building -----------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * this + E, E shifted by OFFSET.
+	 */
+	public SignalExpression plus(SignalExpression e, int offset) {
+		return new Binary(this, e, offset, false);
+	}
+
+	public SignalExpression plus(SignalExpression e) 	{ return plus(e, 0); }
+	public SignalExpression plus(Signal s, int offset) 	{ return plus(of(s), offset); }
+	public SignalExpression plus(Signal s) 				{ return plus(of(s), 0); }
+
+	/**
+	 * this * E, element by element, E shifted by OFFSET.
+	 */
+	public SignalExpression times(SignalExpression e, int offset) {
+		return new Binary(this, e, offset, true);
+	}
+
+	public SignalExpression times(SignalExpression e) 	{ return times(e, 0); }
+	public SignalExpression times(Signal s, int offset) { return times(of(s), offset); }
+	public SignalExpression times(Signal s) 			{ return times(of(s), 0); }
+
+	/**
+	 * this * G. Consecutive scales are folded into one.
+	 */
+	public SignalExpression scale(double g) {
+		return new Scale(this, g);
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Evaluation ---------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * Writes samples [from, from + len) of the expression to OUT, starting at OFF.
+	 * LEN is at most BLOCK.
+	 * @param scratch One block per level of the graph below this node, for the operands
+	 * @param depth First free block of SCRATCH
+	 */
+	protected abstract void evaluate(int from, int len, double[] out, int off, double[][] scratch, int depth);
+
+	/**
+	 * Number of scratch blocks evaluate() needs.
+	 */
+	protected abstract int depth();
+
+	/**
+	 * Table holding the samples of the expression, if there's one (a plain signal), so
+	 * operators can read it in place instead of copying a block of it first.
+	 */
+	protected double[] table() { return null; }
+
+	/**
+	 * Evaluates the expression, in one pass, to a new signal.
+	 */
+	public Signal toSignal() {
+		double[] out = new double[size];
+		evaluateInto(out, 0, false);
+		return new Signal(out, size, sampleRate);
+	}
+
+	/**
+	 * Evaluates the expression to a new signal scaled so its peak is 1 (a silent result is
+	 * left as it is). The peak is found during the evaluation, so this takes one pass over
+	 * the operands and one more over the output only, instead of normalize()'s two extra.
+	 */
+	public Signal toNormalizedSignal() {
+		double[] out = new double[size];
+		double peak = evaluateInto(out, 0, true);
+
+		if(peak > 0.0) {
+			double g = 1.0 / peak;
+			for(int i = 0; i < size; i++)
+				out[i] *= g;
+		}
+		return new Signal(out, size, sampleRate);
+	}
+
+	/**
+	 * Evaluates the expression to TARGET, starting at OFFSET.
+	 * @return Greatest absolute value of the samples, if PEAK is true (otherwise 0)
+	 */
+	public double evaluateInto(double[] target, int offset, boolean peak) {
+		double[][] scratch = new double[depth()][BLOCK];
+		double max = 0.0;
+
+		for(int i = 0; i < size; i += BLOCK) {
+			int len = Math.min(BLOCK, size - i);
+			evaluate(i, len, target, offset + i, scratch, 0);
+
+			//The block is still in cache
+			if(peak)
+				for(int k = offset + i; k < offset + i + len; k++)
+					max = Math.max(max, Math.abs(target[k]));
+		}
+		return max;
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Nodes --------------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	private static final class Leaf extends SignalExpression {
+		private final Signal s;
+
+		Leaf(Signal s) {
+			super(s.size(), s.getSampleRate());
+			this.s = s;
+		}
+
+		@Override
+		protected void evaluate(int from, int len, double[] out, int off, double[][] scratch, int depth) {
+			s.copyInto(from, out, off, len);
+		}
+
+		@Override
+		protected int depth() { return 0; }
+
+		@Override
+		protected double[] table() {
+			//Subclasses may keep their samples elsewhere (see Signal.load())
+			return (s.getClass() == Signal.class) ? s.table : null;
+		}
+	}
+
+	private static final class Scale extends SignalExpression {
+		private final SignalExpression e;
+		private final double g;
+
+		Scale(SignalExpression e, double g) {
+			super(e.size, e.sampleRate);
+			this.e = e;
+			this.g = g;
+		}
+
+		@Override
+		public SignalExpression scale(double g) {
+			return new Scale(e, this.g * g);
+		}
+
+		@Override
+		protected void evaluate(int from, int len, double[] out, int off, double[][] scratch, int depth) {
+			e.evaluate(from, len, out, off, scratch, depth);
+			for(int k = off; k < off + len; k++)
+				out[k] *= g;
+		}
+
+		@Override
+		protected int depth() { return e.depth(); }
+	}
+
+	/**
+	 * Left + right or left * right, right shifted by OFFSET.
+	 */
+	private static final class Binary extends SignalExpression {
+		private final SignalExpression 	left, right;
+		private final int 				offset;
+		private final boolean 			multiply;
+
+		Binary(SignalExpression left, SignalExpression right, int offset, boolean multiply) {
+			super(left.size, left.sampleRate);
+			this.left = left;
+			this.right = right;
+			this.offset = offset;
+			this.multiply = multiply;
+		}
+
+		@Override
+		protected void evaluate(int from, int len, double[] out, int off, double[][] scratch, int depth) {
+			//Part of the block the right operand covers
+			int start = Math.max(from, offset), end = Math.min(from + len, offset + right.size);
+			if(offset < 0 || offset + right.size > size || start >= end) {
+				left.evaluate(from, len, out, off, scratch, depth);
+				return;
+			}
+
+			double[] r = right.table();
+			int ro = start - offset, free = depth;
+			if(r == null) {
+				r = scratch[depth];
+				right.evaluate(ro, end - start, r, 0, scratch, depth + 1);
+				ro = 0;
+				free = depth + 1;	//The left operand must not overwrite R
+			}
+
+			int o = off + start - from, n = end - start;
+			double[] l = left.table();
+			if(l == null) {
+				left.evaluate(from, len, out, off, scratch, free);
+				if(multiply)
+					for(int k = 0; k < n; k++) out[o + k] *= r[ro + k];
+				else
+					for(int k = 0; k < n; k++) out[o + k] += r[ro + k];
+				return;
+			}
+
+			//Left operand read in place: only the samples the right one doesn't cover are copied
+			System.arraycopy(l, from, out, off, start - from);
+			System.arraycopy(l, end, out, o + n, from + len - end);
+			if(multiply)
+				for(int k = 0; k < n; k++) out[o + k] = l[start + k] * r[ro + k];
+			else
+				for(int k = 0; k < n; k++) out[o + k] = l[start + k] + r[ro + k];
+		}
+
+		@Override
+		protected int depth() {
+			return 1 + Math.max(left.depth(), right.depth());
+		}
+	}
+
+	/**
+	 * Test driver: nested operands checked against known values, then a mixdown chain (add,
+	 * envelope, gain, normalize) evaluated eagerly with Signal's operations and as one fused
+	 * expression.
+	 */
+	public static void main(String[] args) throws Exception {
+		//Operands that aren't tables, on both sides: (1 + 10*2) + 100*3 and (1 * 10*2) * 100*3
+		Signal one = constant(1.0, 5000), ten = constant(10.0, 5000), hundred = constant(100.0, 5000);
+		Signal sum = of(one).plus(of(ten).scale(2)).plus(of(hundred).scale(3)).toSignal();
+		Signal product = of(one).times(of(ten).scale(2)).times(of(hundred).scale(3)).toSignal();
+		Signal nested = of(one).scale(2).plus(of(ten).scale(2).times(of(hundred).scale(3))).toSignal();
+		System.out.println("Nested operands: " + sum.at(4999) + " (321), " + product.at(4999) + " (6000), "
+				+ nested.at(4999) + " (6002)");
+
+		int sampleRate = 48000, n = 60 * sampleRate, rounds = 10;
+
+		Signal a = new SineSynth(sampleRate).generate(60, 440);
+		Signal b = new SquareSynth(sampleRate).generate(60, 220);
+		Signal c = new SineSynth(sampleRate).generate(10, 880);
+		double[] e = new double[n];
+		for(int i = 0; i < n; i++)
+			e[i] = Math.exp(-3.0 * i / n);
+		Signal env = new Signal(e, n, sampleRate);
+
+		//First round warms up the JIT
+		for(int pass = 0; pass < 2; pass++) {
+			Signal eager = null, fused = null;
+
+			long t0 = System.nanoTime();
+			for(int r = 0; r < rounds; r++) {
+				eager = a.clone();
+				eager.add(b);
+				eager.add(c, sampleRate);
+				eager.multiplyElements(env);
+				eager.scalarMultiply(0.5);
+				eager.normalize();
+			}
+			long t1 = System.nanoTime();
+			for(int r = 0; r < rounds; r++)
+				fused = a.plus(b).plus(c, sampleRate).times(env).scale(0.5).toNormalizedSignal();
+			long t2 = System.nanoTime();
+
+			double err = 0;
+			for(int i = 0; i < n; i++)
+				err = Math.max(err, Math.abs(eager.at(i) - fused.at(i)));
+
+			if(pass > 0)
+				System.out.println("Eager: " + (t1 - t0) / 1e6 / rounds + " ms, fused: " + (t2 - t1) / 1e6 / rounds
+						+ " ms, max difference " + err);
+		}
+	}
+
+	private static Signal constant(double v, int n) {
+		double[] t = new double[n];
+		Arrays.fill(t, v);
+		return new Signal(t, n, 48000);
+	}
+}
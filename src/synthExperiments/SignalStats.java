@@ -0,0 +1,224 @@
+package synthExperiments;
+
+/**
+ * Statistics of a stream of samples: mean (the DC offset), variance and standard deviation,
+ * peak (greatest absolute value), RMS and crest factor, all in one pass.
+ *
+ * Samples can be added one at a time (Welford's update) or in blocks. Each block is
+ * summarized while it's in cache (its own mean, squared deviations and peak) and merged
+ * into the totals with Chan's formula, which is as accurate as Welford's and costs nothing
+ * per sample. Two accumulators can be merged too, e.g. from the threads of a parallel render.
+ *
+ * As a BlockProcessor it meters a RenderLoop: it lets the blocks through unchanged and
+ * accumulates them while they're still in cache. Unlike RenderStats, it's not safe to read
+ * while recording: read it from another thread only as an estimate.
+ */
+public class SignalStats implements BlockProcessor {
+
+	/**
+	 * Samples summarized at a time: the block stays in L1 cache between its passes.
+	 */
+	public static final int BLOCK = 2048;
+
+	private long 	count;
+	private double 	mean, m2, peak;
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Constructors -------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * Empty accumulator.
+	 */
+	public SignalStats() {}
+
+	/**
+	 * Statistics of every sample of S. Signals that keep their samples elsewhere
+	 * (FloatSignal, MappedSignal) are read in blocks, without loading them.
+	 */
+	public static SignalStats of(Signal s) {
+		SignalStats stats = new SignalStats();
+
+		if(s.getClass() == Signal.class) {
+			stats.add(s.table, 0, s.length);
+			return stats;
+		}
+
+		int n = s.size();
+		double[] block = new double[Math.min(n, BLOCK)];
+		for(int i = 0; i < n; i += BLOCK) {
+			int len = Math.min(BLOCK, n - i);
+			s.copyInto(i, block, 0, len);
+			stats.add(block, 0, len);
+		}
+		return stats;
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Access methods -----------------------------------------
+	//------------------------------------------------------------------------------------
+	public long getCount() { return count; }
+
+	/**
+	 * Mean of the samples, NaN if there's none.
+	 */
+	public double getMean() {
+		return count == 0 ? Double.NaN : mean;
+	}
+
+	/**
+	 * DC offset, i.e., the mean.
+	 */
+	public double getDCOffset() { return getMean(); }
+
+	/**
+	 * Sample variance (divided by count - 1, as Signal.stdDev()), NaN with less than 2 samples.
+	 */
+	public double getVariance() {
+		return count < 2 ? Double.NaN : m2 / (count - 1);
+	}
+
+	public double getStdDev() {
+		return Math.sqrt(getVariance());
+	}
+
+	/**
+	 * Greatest absolute value of the samples, 0 if there's none.
+	 */
+	public double getPeak() { return peak; }
+
+	/**
+	 * Root mean square: sqrt of the mean of the squared samples, DC included. NaN if there's
+	 * no sample.
+	 */
+	public double getRMS() {
+		if(count == 0) return Double.NaN;
+		return Math.sqrt(m2 / count + mean * mean);
+	}
+
+	/**
+	 * Peak / RMS: 1 for a square wave, sqrt(2) for a sine. NaN for silence.
+	 */
+	public double getCrestFactor() {
+		double rms = getRMS();
+		return rms > 0.0 ? peak / rms : Double.NaN;
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Operations ---------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * Adds one sample (Welford's update).
+	 */
+	public void add(double x) {
+		count++;
+		double delta = x - mean;
+		mean += delta / count;
+		m2 += delta * (x - mean);
+
+		if(Math.abs(x) > peak) peak = Math.abs(x);
+	}
+
+	/**
+	 * Adds LEN samples of X, starting at OFF.
+	 */
+	public void add(double[] x, int off, int len) {
+		for(int i = off; i < off + len; i += BLOCK) {
+			int n = Math.min(BLOCK, off + len - i);
+
+			double blockMean = SampleKernels.sum(x, i, n) / n;
+			double blockM2 = SampleKernels.sumOfSquares(x, i, n, blockMean);
+			double blockPeak = SampleKernels.peak(x, i, n);
+			merge(n, blockMean, blockM2, blockPeak);
+		}
+	}
+
+	/**
+	 * Adds every sample OTHER has seen, as if they had been added here.
+	 */
+	public void merge(SignalStats other) {
+		merge(other.count, other.mean, other.m2, other.peak);
+	}
+
+	/**
+	 * Chan's formula for the union of two sets of samples.
+	 */
+	private void merge(long n, double otherMean, double otherM2, double otherPeak) {
+		if(n == 0) return;
+
+		long total = count + n;
+		double delta = otherMean - mean;
+		mean += delta * n / total;
+		m2 += otherM2 + delta * delta * ((double)count * n / total);
+		count = total;
+
+		if(otherPeak > peak) peak = otherPeak;
+	}
+
+	/**
+	 * Meters N samples of IN, and copies them to OUT if it's another array.
+	 */
+	@Override
+	public void process(double[] in, double[] out, int n) {
+		add(in, 0, n);
+		if(out != in) System.arraycopy(in, 0, out, 0, n);
+	}
+
+	/**
+	 * Forgets every sample added so far.
+	 */
+	public void reset() {
+		count = 0;
+		mean = m2 = peak = 0.0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d samples, mean (DC) %.6g, std dev %.6g, peak %.6g, RMS %.6g, crest factor %.4g",
+				count, getMean(), getStdDev(), peak, getRMS(), getCrestFactor());
+	}
+
+	/**
+	 * Test driver: statistics of a few signals, against the two pass formulas, and metering
+	 * a render loop.
+	 */
+	public static void main(String[] args) throws Exception {
+		int sampleRate = 48000;
+
+		//A sine with DC and a peak at the very first sample
+		double[] x = new double[10 * sampleRate];
+		for(int i = 0; i < x.length; i++)
+			x[i] = 0.25 + 0.5 * Math.sin(2 * Math.PI * 440 * i / sampleRate);
+		x[0] = -0.9;
+		Signal s = new Signal(x, x.length, sampleRate);
+
+		double mean = 0, m2 = 0, peak = 0;
+		for(double v: x) mean += v;
+		mean /= x.length;
+		for(double v: x) {
+			m2 += (v - mean) * (v - mean);
+			peak = Math.max(peak, Math.abs(v));
+		}
+
+		SignalStats stats = SignalStats.of(s);
+		System.out.println("Block:     " + stats);
+
+		SignalStats single = new SignalStats();
+		for(double v: x) single.add(v);
+		System.out.println("Welford:   " + single);
+
+		System.out.println(String.format("Two pass:  mean %.6g, std dev %.6g, peak %.6g",
+				mean, Math.sqrt(m2 / (x.length - 1)), peak));
+
+		System.out.println("Square wave: " + SignalStats.of(new SquareSynth(sampleRate).generate(1, 100)));
+
+		//Metering a render, block by block
+		SignalStats meter = new SignalStats();
+		SineSynth synth = new SineSynth(sampleRate);
+		synth.setFrequency(1000);
+		RenderLoop loop = new RenderLoop(synth, new NullSink(4), sampleRate, 256).add(meter);
+		loop.run(sampleRate);
+		System.out.println("Metered:   " + meter);
+	}
+}
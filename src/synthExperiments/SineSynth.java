@@ -6,6 +6,20 @@ package synthExperiments;
  */
 public class SineSynth extends Synthesizer {
 
+	/**
+	 * When not null, render() reads the shared sine table with this interpolation
+	 * instead of calling Math.sin for each sample.
+	 */
+	private Wavetable.Interpolation interpolation = null;
+	
+	public Wavetable.Interpolation getInterpolation() 			{ return interpolation; }
+	
+	/**
+	 * Chooses between exact Math.sin (null, the default) and a lookup on Wavetable.SINE.
+	 * See Wavetable for the error of each interpolation.
+	 */
+	public void setInterpolation(Wavetable.Interpolation mode) 	{ this.interpolation = mode; }
+	
 	/**
 	 * Returns sin(2pi.f/fs), where fs is the sampling frequency and f is the signal frequency
 	 */
@@ -14,6 +28,20 @@ public class SineSynth extends Synthesizer {
 		return Math.sin(2 * Math.PI * t/samplingFreq);
 	}
 	
+	@Override
+	protected double renderBlock(double[] out, int off, int len, double phase, double increment) {
+		if(interpolation != null)
+			return Wavetable.SINE.renderBlock(out, off, len, phase, increment, interpolation);
+		
+		for(int i = off; i < off + len; i++) {
+			out[i] = Math.sin(2 * Math.PI * phase);
+			
+			phase += increment;
+			if(phase >= 1.0) phase -= 1.0;
+		}
+		return phase;
+	}
+	
 	public SineSynth(int samplingFreq) {
 		super(samplingFreq);
 	}
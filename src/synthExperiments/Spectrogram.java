@@ -0,0 +1,84 @@
+package synthExperiments;
+
+/**
+ * Result of a short-time Fourier transform (see STFT): one spectrum per frame, bins 0 to
+ * size/2 (the others mirror them, as signals are real). Frame f starts at sample
+ * f.hop - (size - hop) of the signal. Stored as floats, half the memory
+ * of doubles, which is plenty for analysis and resynthesis of 16 or 24 bit audio.
+ */
+public class Spectrogram {
+
+	private final float[][] 	re, im;
+	private final int 			size, hop, sampleRate, length;
+
+	/**
+	 * @param re Real parts, one array of size/2+1 bins per frame (taken without copy)
+	 * @param im Imaginary parts, same layout
+	 * @param size FFT size of each frame
+	 * @param hop Samples between the start of two frames
+	 * @param sampleRate Sample rate of the analyzed signal
+	 * @param length Number of samples of the analyzed signal
+	 */
+	public Spectrogram(float[][] re, float[][] im, int size, int hop, int sampleRate, int length) {
+		this.re = re;
+		this.im = im;
+		this.size = size;
+		this.hop = hop;
+		this.sampleRate = sampleRate;
+		this.length = length;
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Access methods -----------------------------------------
+	//------------------------------------------------------------------------------------
+	public int getFrames() 		{ return re.length; }
+	public int getBins() 		{ return size / 2 + 1; }
+	public int getSize() 		{ return size; }
+	public int getHop() 		{ return hop; }
+	public int getSampleRate() 	{ return sampleRate; }
+
+	/**
+	 * Number of samples of the analyzed signal (and of its resynthesis).
+	 */
+	public int getLength() 		{ return length; }
+
+	/**
+	 * Real and imaginary parts, without copy: writing to them changes this spectrogram.
+	 * Useful for spectral processing before resynthesis.
+	 */
+	public float[][] getReal() 		{ return re; }
+	public float[][] getImaginary() { return im; }
+
+	public double magnitude(int frame, int bin) {
+		return Math.hypot(re[frame][bin], im[frame][bin]);
+	}
+
+	public double phase(int frame, int bin) {
+		return Math.atan2(im[frame][bin], re[frame][bin]);
+	}
+
+	/**
+	 * Magnitudes of every frame and bin, in a new table.
+	 */
+	public float[][] magnitudes() {
+		float[][] m = new float[re.length][getBins()];
+		for(int f = 0; f < re.length; f++)
+			for(int k = 0; k < m[f].length; k++)
+				m[f][k] = (float)Math.hypot(re[f][k], im[f][k]);
+		return m;
+	}
+
+	/**
+	 * Center frequency of a bin, in Hz.
+	 */
+	public double frequencyOf(int bin) {
+		return (double)bin * sampleRate / size;
+	}
+
+	/**
+	 * Time at the center of a frame, in seconds.
+	 */
+	public double timeOf(int frame) {
+		return (frame * hop - (size - hop) + size / 2.0) / sampleRate;
+	}
+}
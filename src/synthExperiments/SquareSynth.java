@@ -23,5 +23,18 @@ public class SquareSynth extends Synthesizer {
 		int pos = (int)t % samplingFreq;
 		return (pos > samplingFreq/2) ? -1.0 : 1.0;
 	}
+	
+	@Override
+	protected double renderBlock(double[] out, int off, int len, double phase, double increment) {
+		int half = samplingFreq/2;
+		for(int i = off; i < off + len; i++) {
+			int pos = (int)(phase * samplingFreq);
+			out[i] = (pos > half) ? -1.0 : 1.0;
+			
+			phase += increment;
+			if(phase >= 1.0) phase -= 1.0;
+		}
+		return phase;
+	}
 
 }
@@ -5,7 +5,7 @@ package synthExperiments;
  * various waveforms. Extend it and modify method s(double t) so to have the desired
  * waveform.
  * */
-public abstract class Synthesizer {
+public abstract class Synthesizer implements Cloneable, BlockSource {
 	
 	/**
 	 * Sample frequency: this is used as reference so we can know
@@ -20,6 +20,14 @@ public abstract class Synthesizer {
 	 */
 	protected int samplingFreq;
 	
+	/**
+	 * Oscillator state used by render(): frequency of the signal and phase, normalized
+	 * to cycles, i.e., in range [0,1). Keeping the phase wrapped (instead of computing
+	 * i * frequency) keeps it precise however long we render.
+	 */
+	protected double frequency;
+	protected double phase;
+	
 	
 	//---------------------------------------------------------------------------
 	//------------------------------ Constructors -------------------------------
@@ -35,6 +43,23 @@ public abstract class Synthesizer {
 	//---------------------------------------------------------------------------
 	public int getSamplingFreq() 		{ return samplingFreq; }
 	public void setSamplingFreq(int f) 	{ if(f > 0) this.samplingFreq = f; }
+	public double getFrequency() 		{ return frequency; }
+	public double getPhase() 			{ return phase; }
+	
+	/**
+	 * Sets frequency used by render(). Frequencies not respecting Shannon's
+	 * constraint are ignored. Phase is kept, so there's no discontinuity.
+	 */
+	public void setFrequency(double f) {
+		if(f >= 0 && 2*f <= samplingFreq) this.frequency = f;
+	}
+	
+	/**
+	 * Sets phase used by render(), in cycles. Only the fractional part matters.
+	 */
+	public void setPhase(double p) {
+		this.phase = p - Math.floor(p);
+	}
 	
 	//---------------------------------------------------------------------------
 	//------------------------------ Operators--- -------------------------------
@@ -42,12 +67,47 @@ public abstract class Synthesizer {
 	protected abstract double s(double t);
 	
 	/**
-	 * Returns a signal with the desired waveform and frequency.
-	 * Here, we pass integer values to the function s(double), which evaluates
-	 * it in the convenient manner: for some functions, is it better to deal
-	 * with time values, so we do i/samplingFreq; for others, it's better to
-	 * deal with integer values (for example, when we deal with tables describing
-	 * wave shapes).
+	 * Fills OUT[off .. off+len) with the waveform, starting at PHASE (in cycles) and advancing
+	 * INCREMENT cycles per sample.
+	 * This default implementation calls s() for each sample, where t = phase * samplingFreq.
+	 * Subclasses should override it with a loop of their own, so there's no call per sample.
+	 * @return Phase after the last sample, in range [0,1)
+	 */
+	protected double renderBlock(double[] out, int off, int len, double phase, double increment) {
+		for(int i = off; i < off + len; i++) {
+			out[i] = s(phase * samplingFreq);
+			
+			phase += increment;
+			if(phase >= 1.0) phase -= 1.0;
+		}
+		return phase;
+	}
+	
+	/**
+	 * Renders the next LEN samples of the waveform at the current frequency in OUT, starting
+	 * at position OFF. Each call continues where the last one stopped, so a signal of any
+	 * length can be streamed block by block.
+	 */
+	public void render(double[] out, int off, int len) {
+		phase = renderBlock(out, off, len, phase, frequency / samplingFreq);
+	}
+	
+	/**
+	 * Returns a copy of this synthesizer, oscillator state included. Tables (waveforms)
+	 * are shared, as they're only read. Used to make the voices of a PolySynth.
+	 */
+	@Override
+	public Synthesizer clone() {
+		try {
+			return (Synthesizer)super.clone();
+		} catch(CloneNotSupportedException e) {
+			throw new AssertionError(e);
+		}
+	}
+	
+	/**
+	 * Returns a signal with the desired waveform and frequency, starting at phase zero.
+	 * It doesn't change the state used by render().
 	 * 
 	 * @param duration Duration of the signal 
 	 * @param frequency Frequency of the signal
@@ -62,8 +122,7 @@ public abstract class Synthesizer {
 		int nSamples = (int)Math.ceil(duration * samplingFreq);
 		double[] table = new double[nSamples];
 		
-		for(int i = 0; i < nSamples; i++)
-			table[i] = s( i * frequency );
+		renderBlock(table, 0, nSamples, 0.0, frequency / samplingFreq);
 		
 		//Not that beautiful
 		Signal out = new Signal(table); out.setSampleRate( samplingFreq );
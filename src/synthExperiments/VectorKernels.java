@@ -0,0 +1,158 @@
+package synthExperiments;
+
+import java.util.Arrays;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SampleKernels with the Vector API: each loop works on LANES samples at a time (8 with
+ * AVX-512, 4 with AVX2), in the widest registers of the machine, and finishes the samples
+ * left with scalar code.
+ *
+ * Needs the incubator module jdk.incubator.vector, to compile and to run
+ * (--add-modules jdk.incubator.vector). SampleKernels only uses this class if the module
+ * is there, so nothing else may refer to it.
+ */
+class VectorKernels {
+
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	private static final int LANES = SPECIES.length();
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Element-wise -------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	static void add(double[] dst, int dOff, double[] src, int sOff, int n) {
+		int i = 0;
+		for(; i < SPECIES.loopBound(n); i += LANES) {
+			DoubleVector d = DoubleVector.fromArray(SPECIES, dst, dOff + i);
+			d.add(DoubleVector.fromArray(SPECIES, src, sOff + i)).intoArray(dst, dOff + i);
+		}
+		for(; i < n; i++)
+			dst[dOff + i] += src[sOff + i];
+	}
+
+	static void multiply(double[] dst, int dOff, double[] src, int sOff, int n) {
+		int i = 0;
+		for(; i < SPECIES.loopBound(n); i += LANES) {
+			DoubleVector d = DoubleVector.fromArray(SPECIES, dst, dOff + i);
+			d.mul(DoubleVector.fromArray(SPECIES, src, sOff + i)).intoArray(dst, dOff + i);
+		}
+		for(; i < n; i++)
+			dst[dOff + i] *= src[sOff + i];
+	}
+
+	static void scale(double[] x, int off, int n, double g) {
+		int i = 0;
+		for(; i < SPECIES.loopBound(n); i += LANES)
+			DoubleVector.fromArray(SPECIES, x, off + i).mul(g).intoArray(x, off + i);
+		for(; i < n; i++)
+			x[off + i] *= g;
+	}
+
+	static void divide(double[] x, int off, int n, double d) {
+		int i = 0;
+		for(; i < SPECIES.loopBound(n); i += LANES)
+			DoubleVector.fromArray(SPECIES, x, off + i).div(d).intoArray(x, off + i);
+		for(; i < n; i++)
+			x[off + i] /= d;
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Reductions ---------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	static double sum(double[] x, int off, int n) {
+		DoubleVector acc = DoubleVector.zero(SPECIES);
+		int i = 0;
+		for(; i < SPECIES.loopBound(n); i += LANES)
+			acc = acc.add(DoubleVector.fromArray(SPECIES, x, off + i));
+
+		double sum = acc.reduceLanes(VectorOperators.ADD);
+		for(; i < n; i++)
+			sum += x[off + i];
+		return sum;
+	}
+
+	static double sumOfSquares(double[] x, int off, int n, double mean) {
+		DoubleVector acc = DoubleVector.zero(SPECIES);
+		int i = 0;
+		for(; i < SPECIES.loopBound(n); i += LANES) {
+			DoubleVector d = DoubleVector.fromArray(SPECIES, x, off + i).sub(mean);
+			acc = acc.add(d.mul(d));
+		}
+
+		double sum = acc.reduceLanes(VectorOperators.ADD);
+		for(; i < n; i++)
+			sum += (x[off + i] - mean) * (x[off + i] - mean);
+		return sum;
+	}
+
+	static double peak(double[] x, int off, int n) {
+		DoubleVector acc = DoubleVector.zero(SPECIES);
+		int i = 0;
+		for(; i < SPECIES.loopBound(n); i += LANES) {
+			//Compare-and-blend, not max(): max() returns NaN if a lane is NaN, the scalar
+			//loop skips NaNs
+			DoubleVector a = DoubleVector.fromArray(SPECIES, x, off + i).abs();
+			acc = acc.blend(a, a.compare(VectorOperators.GT, acc));
+		}
+
+		double max = acc.reduceLanes(VectorOperators.MAX);
+		for(; i < n; i++)
+			if(Math.abs(x[off + i]) > max) max = Math.abs(x[off + i]);
+		return max;
+	}
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Convolution --------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * Outputs in [from, to), all of them with M taps (from >= m - 1), a tile at a time as
+	 * in SampleKernels.convolve(). Each output adds the same products in the same order,
+	 * so results are the same bits.
+	 */
+	static void convolveFull(double[] x, double[] h, int m, double[] out, int from, int to) {
+		for(int t = from; t < to; t += SampleKernels.TILE) {
+			int end = Math.min(t + SampleKernels.TILE, to);
+			int vend = t + SPECIES.loopBound(end - t);
+
+			int k = 0;
+			for(; k + 4 <= m; k += 4) {
+				double h0 = h[k], h1 = h[k+1], h2 = h[k+2], h3 = h[k+3];
+				int i = t;
+				for(; i < vend; i += LANES) {
+					DoubleVector o = (k == 0) ? DoubleVector.zero(SPECIES) : DoubleVector.fromArray(SPECIES, out, i);
+					o = o.add(DoubleVector.fromArray(SPECIES, x, i - k).mul(h0));
+					o = o.add(DoubleVector.fromArray(SPECIES, x, i - k - 1).mul(h1));
+					o = o.add(DoubleVector.fromArray(SPECIES, x, i - k - 2).mul(h2));
+					o = o.add(DoubleVector.fromArray(SPECIES, x, i - k - 3).mul(h3));
+					o.intoArray(out, i);
+				}
+				for(; i < end; i++) {
+					double o = (k == 0) ? 0.0 : out[i];
+					o += h0 * x[i-k];
+					o += h1 * x[i-k-1];
+					o += h2 * x[i-k-2];
+					o += h3 * x[i-k-3];
+					out[i] = o;
+				}
+			}
+			if(k == 0)
+				Arrays.fill(out, t, end, 0.0);
+			for(; k < m; k++) {
+				double hk = h[k];
+				int i = t;
+				for(; i < vend; i += LANES) {
+					DoubleVector o = DoubleVector.fromArray(SPECIES, out, i);
+					o.add(DoubleVector.fromArray(SPECIES, x, i - k).mul(hk)).intoArray(out, i);
+				}
+				for(; i < end; i++)
+					out[i] += hk * x[i-k];
+			}
+		}
+	}
+}
@@ -0,0 +1,244 @@
+package synthExperiments;
+
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads PCM and IEEE floating point WAVE files. The header is parsed when the reader is built and the DATA chunk
+ * is memory mapped, so opening a file costs the same whatever its size. Samples are only
+ * decoded when they're used, through the signals returned by getChannel().
+ */
+public class WAVEReader {
+
+	private final byte[] RIFF = {'R', 'I', 'F', 'F'};
+	private final byte[] WAVE = {'W', 'A', 'V', 'E'};
+	private final byte[] FMT = 	{'f', 'm', 't', ' '};
+	private final byte[] DATA = {'d', 'a', 't', 'a'};
+	private final short S_AUDIOFORMAT = 1; //PCM format, no compression
+	private final short S_AUDIOFORMAT_FLOAT = 3; //IEEE floating point samples
+
+	/**
+	 * Maximum size of each mapped region. A region always holds a whole number of frames,
+	 * so samples never straddle two regions.
+	 */
+	private static final long REGION_SIZE = 1L << 30;
+
+	private int 		sampleRate, numChannels;
+	private SampleSize 	sampleSize;
+	private long 		frames;
+
+	/**
+	 * DATA chunk, mapped in regions of regionSize bytes.
+	 */
+	private MappedByteBuffer[] 	regions;
+	private long 				regionSize;
+
+	//------------------------------------------------------------------------------------------------
+	//------------------------------------------------------------------------------------------------
+	//------------------------------------------------------------------------------------------------
+
+	/**
+	 * Parses the header of a WAVE file and maps its samples.
+	 * @param filepath File to read
+	 * @throws Exception Thrown if file can't be read or if it is not a PCM/float WAVE file
+	 */
+	public WAVEReader(String filepath) throws Exception
+	{
+		RandomAccessFile file = new RandomAccessFile(filepath, "r");
+
+		try {
+			FileChannel channel = file.getChannel();
+			long fileSize = channel.size();
+
+			ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, header, 0);
+			if(!tagIs(header, 0, RIFF) || !tagIs(header, 8, WAVE))
+				throw new Exception(filepath + " is not a RIFF/WAVE file.");
+
+			//Run through chunks until DATA. FMT must come before it.
+			ByteBuffer chunk = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			long position = 12;
+			boolean fmtFound = false;
+
+			while(true) {
+				if(position + 8 > fileSize)
+					throw new Exception(filepath + " has no DATA chunk.");
+
+				chunk.clear();
+				readFully(channel, chunk, position);
+				long size = chunk.getInt(4) & 0xFFFFFFFFL;
+				position += 8;
+
+				if(tagIs(chunk, 0, FMT)) {
+					ByteBuffer fmt = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+					readFully(channel, fmt, position);
+					parseFormat(fmt);
+					fmtFound = true;
+				}
+				else if(tagIs(chunk, 0, DATA)) {
+					if(!fmtFound)
+						throw new Exception(filepath + ": DATA chunk found before FMT chunk.");
+
+					//Unfinished files may have a wrong size here; trust the file size
+					size = Math.min(size, fileSize - position);
+					map(channel, position, size);
+					break;
+				}
+
+				//Chunks are word aligned
+				position += size + (size & 1);
+			}
+		} finally {
+			//Mappings stay valid after the file is closed
+			file.close();
+		}
+	}
+
+	//------------------------------------------------------------------------------------------------
+	//------------------------------------------------------------------------------------------------
+	//------------------------------------------------------------------------------------------------
+	public int 			getSampleRate() 	{ return sampleRate; }
+	public int 			getNumChannels() 	{ return numChannels; }
+	public SampleSize 	getSampleSize() 	{ return sampleSize; }
+
+	/**
+	 * Number of frames, i.e., of samples in each channel.
+	 */
+	public long 		getFrames() 		{ return frames; }
+
+	/**
+	 * Returns a signal whose samples are decoded from the file when they're accessed.
+	 * @param channel Channel index, from 0 to getNumChannels()-1
+	 * @throws Exception Thrown if channel doesn't exist or has too many samples for a Signal.
+	 */
+	public Signal getChannel(int channel) throws Exception
+	{
+		if(channel < 0 || channel >= numChannels)
+			throw new Exception("Channel " + channel + " does not exist.");
+		if(frames > Integer.MAX_VALUE)
+			throw new Exception("Too many samples (" + frames + ") for a Signal.");
+
+		return new MappedSignal(this, channel);
+	}
+
+	/**
+	 * Same as getChannel(0).
+	 */
+	public Signal getSignal() throws Exception
+	{
+		return getChannel(0);
+	}
+
+	//------------------------------------------------------------------------------------------------
+	//------------------------------------------------------------------------------------------------
+	//------------------------------------------------------------------------------------------------
+
+	/**
+	 * Decodes the sample of CHANNEL in FRAME to the range [-1,1]. This inverts what
+	 * ExtractSamples does.
+	 */
+	double decode(long frame, int channel)
+	{
+		int bytes = sampleSize.value;
+		long offset = (frame * numChannels + channel) * bytes;
+		MappedByteBuffer region = regions[(int)(offset / regionSize)];
+		int pos = (int)(offset % regionSize);
+
+		switch(sampleSize) {
+			case U8BIT:
+				return (region.get(pos) & 0xFF) / 128.0 - 1.0;
+			case S16BIT:
+				return region.getShort(pos) / 32768.0;
+			case S24BIT:
+				int v = (region.get(pos) & 0xFF) | (region.get(pos + 1) & 0xFF) << 8 | region.get(pos + 2) << 16;
+				return v / 8388608.0;
+			case F32BIT:
+				return region.getFloat(pos);
+			case F64BIT:
+				return region.getDouble(pos);
+			default:
+				return region.getInt(pos) / 2147483648.0;
+		}
+	}
+
+	private void parseFormat(ByteBuffer fmt) throws Exception
+	{
+		short audioFormat = fmt.getShort(0);
+		numChannels = fmt.getShort(2);
+		sampleRate = fmt.getInt(4);
+		short bitsPerSample = fmt.getShort(14);
+
+		if(audioFormat != S_AUDIOFORMAT && audioFormat != S_AUDIOFORMAT_FLOAT)
+			throw new Exception("Only PCM and float WAVE files are supported (audio format " + audioFormat + ").");
+		if(numChannels <= 0)
+			throw new Exception("Bad number of channels: " + numChannels);
+
+		sampleSize = null;
+		boolean floating = (audioFormat == S_AUDIOFORMAT_FLOAT);
+		for(SampleSize s: SampleSize.values())
+			if(s.value * 8 == bitsPerSample && s.floating == floating) sampleSize = s;
+		if(sampleSize == null)
+			throw new Exception("Unsupported sample size: " + bitsPerSample + " bits.");
+	}
+
+	private void map(FileChannel channel, long position, long size) throws Exception
+	{
+		long frameSize = (long)numChannels * sampleSize.value;
+		frames = size / frameSize;
+		size = frames * frameSize;
+
+		regionSize = Math.max(1, REGION_SIZE / frameSize) * frameSize;
+		int nRegions = (int)((size + regionSize - 1) / regionSize);
+		regions = new MappedByteBuffer[nRegions];
+
+		for(int i = 0; i < nRegions; i++) {
+			long start = i * regionSize;
+			regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, position + start, Math.min(regionSize, size - start));
+			regions[i].order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws Exception
+	{
+		while(buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if(read < 0) throw new Exception("Unexpected end of file.");
+		}
+	}
+
+	private static boolean tagIs(ByteBuffer buffer, int offset, byte[] tag)
+	{
+		for(int i = 0; i < tag.length; i++)
+			if(buffer.get(offset + i) != tag[i]) return false;
+		return true;
+	}
+
+	//------------------------------------------------------------------------------------------------
+	//------------------------------------------------------------------------------------------------
+	//------------------------------------------------------------------------------------------------
+	/**
+	 * Test driver: writes a sine with every sample size, reads it back and compares.
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		Signal sine = new SineSynth(8000).generate(1, 437.5);
+		sine.scalarMultiply(0.9);
+
+		for(SampleSize size: SampleSize.values()) {
+			sine.writeToWAVE("readerTest.wav", size);
+
+			WAVEReader reader = new WAVEReader("readerTest.wav");
+			Signal read = reader.getSignal();
+
+			double err = 0;
+			for(int i = 0; i < sine.size(); i++)
+				err = Math.max(err, Math.abs(read.at(i) - sine.at(i)));
+
+			System.out.println(size + ": " + reader.getFrames() + " frames at " + reader.getSampleRate()
+					+ " Hz, max error " + err);
+		}
+	}
+}
@@ -1,34 +1,65 @@
 package synthExperiments;
 
-import java.io.FileOutputStream;
-import java.util.Arrays;
-import java.util.LinkedList;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
-public class WAVEWriter {
+public class WAVEWriter implements AutoCloseable {
 
 	private final byte[] RIFF = {'R', 'I', 'F', 'F'};
 	private final byte[] WAVE = {'W', 'A', 'V', 'E'};
 	private final byte[] FMT = 	{'f', 'm', 't', ' '};
 	private final byte[] DATA = {'d', 'a', 't', 'a'};
+	private final byte[] FACT = {'f', 'a', 'c', 't'};
 	private final short S_AUDIOFORMAT = 1; //PCM format, no compression
+	private final short S_AUDIOFORMAT_FLOAT = 3; //IEEE floating point samples
+
+	/**
+	 * Size of the buffer used to push samples to the file. Big enough to make each
+	 * write() to the channel worth it.
+	 */
+	private static final int BUFFER_SIZE = 1 << 20;
+	
+	/**
+	 * Greatest RIFF chunk size: it's stored as an unsigned 32 bits integer, so a file
+	 * can't be larger than 4 GB (plus the 8 bytes of the RIFF ID and size).
+	 */
+	private static final long MAX_CHUNK_SIZE = 0xFFFFFFFFL;
+	
+	/**
+	 * Most bytes of samples addSample() can store: a ByteBuffer holds at most
+	 * 2^31 - 1 bytes (a bit less on some VMs). Longer files must be streamed.
+	 */
+	private static final int MAX_STORED = Integer.MAX_VALUE - 8;
 	
 	/**
-	 * This is where we store our samples. Channels must be stored in sequence!
-	 * First, store all sample from channel 1, then all samples from channel 2, etc.
-	 * Ex.: s1c1 s2c1 s3c1 ... sNc1 s1c2 s2c2 s3c2 ... sNc2
+	 * This is where we store our samples, as they'll be in the file. Channels must be
+	 * interleaved! First, sample 1 of every channel, then sample 2 of every channel, etc.
+	 * Ex.: s1c1 s1c2 ... s1cN s2c1 s2c2 ... s2cN s3c1 ...
+	 * To write planar multichannel data, use write(MultiChannelSignal) instead.
 	 */
-	private LinkedList<byte[]> samples; //Little Endian
+	private ByteBuffer samples; //Little Endian
 	
 	/**
 	 * This will help us to encode double values in byte arrays.
 	 */
 	private ExtractSamples sampler;
+
+	/**
+	 * Streaming mode: file opened by open(), buffer where samples are encoded before
+	 * going to the file and number of bytes of samples written so far.
+	 */
+	private FileChannel channel;
+	private ByteBuffer 	buffer;
+	private long 		dataSize;
 	
 	/**
 	 * Store relevant data to build WAVE header. i_ stands for INTEGER (4 bytes) and
 	 * s_ for SHORT (2 bytes).
 	 */
-	private int 	i_chunkSize, i_subchunk1Size, i_sampleRate, i_byteRate, i_subchunk2Size;
+	private int 	i_subchunk1Size, i_sampleRate, i_byteRate;
 	private short 	s_audioFormat, s_numChannels, s_blockAlign, s_bitsPerSample;
 	
 	//------------------------------------------------------------------------------------------------
@@ -46,10 +77,10 @@ public class WAVEWriter {
 	 */
 	public WAVEWriter(int sampleRate, SampleSize sizeInBytes, int numChannels)
 	{
-		samples = new LinkedList<>();
+		samples = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
 		sampler = new ExtractSamples(sizeInBytes);
 		
-		s_audioFormat = 	S_AUDIOFORMAT;
+		s_audioFormat = 	sizeInBytes.floating ? S_AUDIOFORMAT_FLOAT : S_AUDIOFORMAT;
 		s_numChannels = 	(short)numChannels;
 		i_sampleRate = 		sampleRate;
 		s_bitsPerSample = 	(short)(sizeInBytes.value*8);
@@ -64,9 +95,8 @@ public class WAVEWriter {
 					2 +	//Block align = Short (2 bytes)
 					2;	//Bits per sample = Short (2 bytes)
 		
-		//Both depend on number of samples
-		i_subchunk2Size = 0;
-		i_chunkSize = 0;
+		//Non PCM formats have the size of an extension (none, here)
+		if(sizeInBytes.floating) i_subchunk1Size += 2;
 	}
 	
 	//------------------------------------------------------------------------------------------------
@@ -74,30 +104,43 @@ public class WAVEWriter {
 	//------------------------------------------------------------------------------------------------
 	
 	/**
-	 * Manage sample storage.
-	 * @param sample A sample which will be add to the file
-	 * @throws Throw an exception if sample size is wrong (that is, is different from what
-	 * we defined in bitsPerSample).
+	 * Encodes a sample and stores it until writeWAVE() is called. Samples that can't be
+	 * encoded (out of range with policy FAIL) or stored (more than MAX_STORED bytes) are
+	 * reported and skipped.
 	 */
-	private void addSample(byte[] sample) throws Exception
-	{
-		if(sample.length*8 != this.s_bitsPerSample)
-			throw new Exception("Bad sample size!");
-		
-		byte[] sample_le = bigToLittleEndian(sample);
-		samples.add(sample_le);
-	}
-	
 	public void addSample(double sample)
 	{
+		int bytes = s_bitsPerSample / 8;
+		if(samples.remaining() < bytes) {
+			try {
+				checkRoom(samples.position(), bytes);
+				if((long)samples.position() + bytes > MAX_STORED)
+					throw new IOException("Too many samples to store: stream them with open() and write().");
+			} catch(IOException e) {
+				System.err.println(e.getMessage());
+				return;
+			}
+			
+			int capacity = (int)Math.min(2L * samples.capacity(), MAX_STORED);
+			ByteBuffer bigger = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+			samples.flip();
+			samples = bigger.put(samples);
+		}
+		
 		try {
-			byte[] s = sampler.sample(sample);
-			addSample(s);
+			sampler.encode(sample, samples);
 		} catch(Exception e) {
 			System.err.println(e.getMessage());
 		}
 	}
 	
+	/**
+	 * What to do with samples out of range [-1,1]. Default is FAIL.
+	 */
+	public void setClipPolicy(ExtractSamples.ClipPolicy policy) {
+		sampler.setClipPolicy(policy);
+	}
+	
 	public void clearSamples() {
 		samples.clear();
 	}
@@ -107,28 +150,34 @@ public class WAVEWriter {
 	//------------------------------------------------------------------------------------------------
 	
 	/**
-	 * Calculates the size of chunks which are dependent
-	 * of the number of samples.
-	 * @return The chunk size in bytes
+	 * RIFF chunk size of a file with DATASIZE bytes of samples. Stored as an unsigned
+	 * 32 bits integer: write() keeps it under 4 GB.
 	 */
-	private int calculateSubchunk2Size() 
+	private long chunkSize(long dataSize)
 	{
-		int bytesPerSample = this.s_bitsPerSample / 8;
-		this.i_subchunk2Size = this.s_numChannels * bytesPerSample * samples.size();
-		
-		return i_subchunk2Size;
+		return 4					//WAVE format tag
+			+ 4				//FMT ID tag
+			+ 4				//FMT subchunk size value
+			+ i_subchunk1Size		//Actual FMT subchunk size
+			+ (isFloating() ? 12 : 0)	//FACT subchunk
+			+ 4				//DATA ID tag
+			+ 4				//DATA subchunk size tag
+			+ dataSize;			//Actual DATA subchunk size
 	}
 	
-	private int calculateChunksize()
+	/**
+	 * Throws if BYTES more of samples wouldn't fit in a WAVE file, whose sizes are
+	 * 32 bits.
+	 */
+	private void checkRoom(long bytes) throws IOException
 	{
-		this.i_chunkSize = 4					//WAVE format tag
-					+ 4				//FMT ID tag
-					+ 4				//FMT subchunk size value
-					+ i_subchunk1Size		//Actual FMT subchunk size
-					+ 4				//DATA ID tag
-					+ 4				//DATA subchunk size tag
-					+ calculateSubchunk2Size();	//Actual DATA subchunk size
-		return i_chunkSize;
+		checkRoom(dataSize, bytes);
+	}
+	
+	private void checkRoom(long stored, long bytes) throws IOException
+	{
+		if(chunkSize(stored + bytes) > MAX_CHUNK_SIZE)
+			throw new IOException("WAVE files can't be larger than 4 GB.");
 	}
 		
 	//------------------------------------------------------------------------------------------------
@@ -136,110 +185,250 @@ public class WAVEWriter {
 	//------------------------------------------------------------------------------------------------
 	
 	/**
-	 * Functions to write the WAVE file itself. writeWAVE is the main function
-	 * and the other two are auxiliary.
-	 * @param filepath Output file
-	 * @throws Exception Thrown if filepath is invalid
+	 * Puts the WAVE header in OUTPUT. Sizes are computed from the number of bytes
+	 * written so far.
 	 */
-	private void writeWAVEHeader(String filepath) throws Exception
+	private void putWAVEHeader(ByteBuffer output)
 	{
-		FileOutputStream output = new FileOutputStream(filepath, true);
-		
-		//Convert integers and shorts in byte arrays
-		byte[] chunkSize = 	bigToLittleEndian(calculateChunksize());
-		byte[] subchunk1Size = 	bigToLittleEndian(this.i_subchunk1Size);
-		byte[] audioFormat = 	bigToLittleEndian(this.s_audioFormat);
-		byte[] numChannels = 	bigToLittleEndian(this.s_numChannels);
-		byte[] sampleRate = 	bigToLittleEndian(this.i_sampleRate);
-		byte[] byteRate = 	bigToLittleEndian(this.i_byteRate);
-		byte[] blockAlign = 	bigToLittleEndian(this.s_blockAlign);
-		byte[] bitsPerSample = 	bigToLittleEndian(this.s_bitsPerSample);
-		byte[] subchunk2Size = 	bigToLittleEndian(calculateSubchunk2Size());
-		
-		//Write it to file
-		output.write(RIFF);
-		output.write(chunkSize);
-		output.write(WAVE);
-		output.write(FMT);
-		output.write(subchunk1Size);
-		output.write(audioFormat);
-		output.write(numChannels);
-		output.write(sampleRate);
-		output.write(byteRate);
-		output.write(blockAlign);
-		output.write(bitsPerSample);
-		output.write(DATA);
-		output.write(subchunk2Size);
+		output.put(RIFF);
+		output.putInt((int)chunkSize(dataSize));
+		output.put(WAVE);
+		output.put(FMT);
+		output.putInt(this.i_subchunk1Size);
+		output.putShort(this.s_audioFormat);
+		output.putShort(this.s_numChannels);
+		output.putInt(this.i_sampleRate);
+		output.putInt(this.i_byteRate);
+		output.putShort(this.s_blockAlign);
+		output.putShort(this.s_bitsPerSample);
 		
-		output.close();
-	}
-	
-	private void writeWAVEBody(String filepath) throws Exception
-	{
-		FileOutputStream out = new FileOutputStream(filepath, true);
-		
-		for(byte[] sample: samples) {
-			out.write(sample);
+		if(isFloating()) {
+			output.putShort((short)0);	//Size of the extension
+			output.put(FACT);
+			output.putInt(4);
+			output.putInt((int)(dataSize / s_blockAlign));	//Number of frames
 		}
 		
-		out.close();
+		output.put(DATA);
+		output.putInt((int)dataSize);
 	}
-	
+
+	/**
+	 * Writes the samples added by addSample() to a WAVE file.
+	 * @param filepath Output file
+	 * @throws Exception Thrown if filepath is invalid
+	 */
 	public void writeWAVE(String filepath) throws Exception
 	{
-		//Create new file then close. the other functions will overwrite to it.
-		FileOutputStream out = new FileOutputStream(filepath, false); 
-		out.close();
+		open(filepath);
 		
-		writeWAVEHeader(filepath);
-		writeWAVEBody(filepath);
+		try {
+			flush();
+			
+			ByteBuffer stored = samples.duplicate();
+			stored.flip();
+			dataSize = stored.remaining();
+			while(stored.hasRemaining())
+				channel.write(stored);
+		} finally {
+			close();
+		}
 	}
 	
 	//------------------------------------------------------------------------------------------------
 	//------------------------------------------------------------------------------------------------
 	//------------------------------------------------------------------------------------------------
-	
+
 	/**
-	 * Gets parameter N and converts to an array of bytes in LITTLE ENDIAN
-	 * order.
-	 * @param n An integer, a short or just an array of bytes
-	 * @return An array of bytes with the same value in little endian
+	 * Streaming mode: instead of keeping samples in memory until writeWAVE(), open the
+	 * file, write() the samples as they're produced and close() it. Samples go through a
+	 * fixed size buffer, so memory use doesn't depend on the length of the file.
+	 * A header is written now and patched with the actual sizes by close().
+	 * @param filepath Output file. Overwritten if it exists.
+	 * @throws Exception Thrown if filepath is invalid or a file is already open
 	 */
-	private byte[] bigToLittleEndian(byte[] n) {
-		
-		int len = n.length;
-		byte[] LittleEndian = new byte[len];
+	public void open(String filepath) throws Exception
+	{
+		if(channel != null)
+			throw new Exception("A file is already open. Close it first.");
 		
-		for(int i = 0; i < len; i++)
-			LittleEndian[i] = n[len-i-1];
+		RandomAccessFile file = new RandomAccessFile(filepath, "rw");
+		file.setLength(0);
+		channel = file.getChannel();
 		
-		return LittleEndian;
+		if(buffer == null)
+			buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.clear();
+		dataSize = 0;
+
+		putWAVEHeader(buffer);
 	}
 	
-	private byte[] bigToLittleEndian(int n) {
+	/**
+	 * Streaming mode: encodes a sample and writes it to the open file.
+	 * @throws Exception Thrown if sample is not in range -1 <= value <= 1, if there's no open file
+	 * or if the file would be larger than 4 GB (IOException).
+	 */
+	public void write(double sample) throws Exception
+	{
+		if(channel == null)
+			throw new Exception("No file open. Call open() first.");
 		
-		int INTSIZE = Integer.SIZE/8;		
-		byte[] out = new byte[INTSIZE];
-		int mask = 0x000000FF;
+		int bytes = s_bitsPerSample / 8;
+		checkRoom(bytes);
+		if(buffer.remaining() < bytes)
+			flush();
+		
+		sampler.encode(sample, buffer);
+		dataSize += bytes;
+	}
+
+	/**
+	 * Streaming mode: writes LEN samples of SAMPLES, starting at OFFSET. Samples are
+	 * encoded in bulk, as many as fit in the buffer at a time. Throws an IOException,
+	 * keeping the samples written before, if the file would be larger than 4 GB.
+	 */
+	public void write(double[] samples, int offset, int len) throws Exception
+	{
+		if(channel == null)
+			throw new Exception("No file open. Call open() first.");
+		
+		int bytes = s_bitsPerSample / 8;
+		while(len > 0) {
+			int room = buffer.remaining() / bytes;
+			if(room == 0) {
+				flush();
+				continue;
+			}
+			
+			int n = Math.min(room, len);
+			checkRoom((long)n * bytes);
+			int before = buffer.position();
+			try {
+				sampler.encode(samples, offset, n, buffer);
+			} finally {
+				//Samples encoded before a failure are kept, so the header stays consistent
+				dataSize += buffer.position() - before;
+			}
+			offset += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Streaming mode: writes LEN float samples of SAMPLES, starting at OFFSET. With F32BIT,
+	 * they go to the file as they are, with no conversion.
+	 */
+	public void write(float[] samples, int offset, int len) throws Exception
+	{
+		if(channel == null)
+			throw new Exception("No file open. Call open() first.");
 		
-		for(int i = 0; i < INTSIZE; i++, mask = mask << 8)
-		{
-			int masked = (n & mask);
-			masked = masked >> (i*8); //Shift bits to the beginning
-			out[i] = (byte)masked;
+		int bytes = s_bitsPerSample / 8;
+		while(len > 0) {
+			int room = buffer.remaining() / bytes;
+			if(room == 0) {
+				flush();
+				continue;
+			}
+			
+			int n = Math.min(room, len);
+			checkRoom((long)n * bytes);
+			int before = buffer.position();
+			try {
+				sampler.encode(samples, offset, n, buffer);
+			} finally {
+				dataSize += buffer.position() - before;
+			}
+			offset += n;
+			len -= n;
 		}
+	}
+
+	/**
+	 * Streaming mode: writes LEN frames of a planar multichannel signal, starting at frame
+	 * OFFSET. Channels are interleaved while they're encoded, in a single pass.
+	 * @param channels One table per channel; there must be as many as numChannels.
+	 */
+	public void write(double[][] channels, int offset, int len) throws Exception
+	{
+		if(channel == null)
+			throw new Exception("No file open. Call open() first.");
+		if(channels.length != s_numChannels)
+			throw new Exception("Expected " + s_numChannels + " channels, got " + channels.length);
 		
-		return out;
+		int frameSize = s_blockAlign;
+		while(len > 0) {
+			int room = buffer.remaining() / frameSize;
+			if(room == 0) {
+				flush();
+				continue;
+			}
+			
+			int n = Math.min(room, len);
+			checkRoom((long)n * frameSize);
+			int before = buffer.position();
+			try {
+				sampler.encodeInterleaved(channels, offset, n, buffer);
+			} finally {
+				dataSize += buffer.position() - before;
+			}
+			offset += n;
+			len -= n;
+		}
+	}
+	
+	/**
+	 * Streaming mode: writes all frames of SIGNAL.
+	 */
+	public void write(MultiChannelSignal signal) throws Exception
+	{
+		write(signal.getTables(), 0, signal.size());
+	}
+	
+	/**
+	 * Streaming mode: writes what's left in the buffer, patches the header with the final
+	 * sizes and closes the file. Does nothing if no file is open.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if(channel == null) return;
+
+		try {
+			flush();
+
+			buffer.clear();
+			putWAVEHeader(buffer);
+			buffer.flip();
+			channel.write(buffer, 0);
+		} finally {
+			buffer.clear();
+			channel.close();
+			channel = null;
+		}
+	}
+
+	private boolean isFloating()
+	{
+		return s_audioFormat == S_AUDIOFORMAT_FLOAT;
 	}
 	
-	private byte[] bigToLittleEndian(short n)
+	/**
+	 * Sends buffered bytes to the file.
+	 */
+	private void flush() throws IOException
 	{
-		return Arrays.copyOfRange( bigToLittleEndian( (int)n ), 0, 2);
+		buffer.flip();
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
 	}
 	
 	//------------------------------------------------------------------------------------------------
 	//------------------------------------------------------------------------------------------------
 	//------------------------------------------------------------------------------------------------
+	
 	/**
 	 * A test driver for this class. Generates white noise for 1 second in 16 bits.
 	 * @param args
@@ -267,6 +456,12 @@ public class WAVEWriter {
 			
 			WW.writeWAVE("whiteNoise2.wav");
 		
+			//Same signal, streamed
+			WW.open("whiteNoise2Streamed.wav");
+			for(double t = 0; t < duration; t += periode)
+				WW.write( Math.sin(Math.PI*2*t*freq) );
+			WW.close();
+
 		} catch(Exception e) {
 			System.out.println(e.getMessage());
 		}
@@ -0,0 +1,183 @@
+package synthExperiments;
+
+/**
+ * One cycle of a waveform stored in a table, read at any phase by interpolating between
+ * its samples. Much cheaper than evaluating the waveform itself (Math.sin, for example)
+ * for each sample.
+ *
+ * Error against the exact waveform depends on the table size N and on how smooth the waveform
+ * is. For the shared SINE table (N = 4096, step h = 2.pi/N), with |sin''| and |sin''''| <= 1:
+ * - LINEAR: |error| <= h^2/8 = 2.95e-7 (about -131 dB)
+ * - CUBIC (4 points Lagrange): |error| <= 9.h^4/384 = 1.3e-13, i.e., rounding noise
+ * main() measures both and compares their speed with Math.sin.
+ */
+public class Wavetable {
+
+	public enum Interpolation { NEAREST, LINEAR, CUBIC }
+
+	/**
+	 * Size of the shared sine table. A power of two; its 4096 doubles (32 KB) stay in cache.
+	 */
+	public static final int SINE_SIZE = 4096;
+
+	/**
+	 * Shared sine table: one cycle of sin(2.pi.phase).
+	 */
+	public static final Wavetable SINE = sine(SINE_SIZE);
+
+	/**
+	 * The cycle with guard points around it: table[0] = cycle[N-1], table[1..N] = cycle,
+	 * table[N+1] = cycle[0], table[N+2] = cycle[1]. So interpolation never wraps indices.
+	 */
+	private final double[] 	table;
+	private final int 		size;
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Constructors -------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * @param cycle One cycle of the waveform, sampled at regular intervals. It is copied.
+	 */
+	public Wavetable(double[] cycle) {
+		size = cycle.length;
+		if(size == 0)
+			throw new IllegalArgumentException("A wavetable needs at least one sample");
+
+		table = new double[size + 3];
+		System.arraycopy(cycle, 0, table, 1, size);
+		table[0] = cycle[size - 1];
+		table[size + 1] = cycle[0];
+		table[size + 2] = cycle[1 % size];
+	}
+
+	private static Wavetable sine(int n) {
+		double[] cycle = new double[n];
+		for(int i = 0; i < n; i++)
+			cycle[i] = Math.sin(2 * Math.PI * i / n);
+		return new Wavetable(cycle);
+	}
+
+	public int size() { return size; }
+
+	//------------------------------------------------------------------------------------
+	//--------------------------- Operations ---------------------------------------------
+	//------------------------------------------------------------------------------------
+
+	/**
+	 * Value of the waveform at PHASE.
+	 * @param phase In cycles, range [0,1)
+	 */
+	public double lookup(double phase, Interpolation mode) {
+		double x = phase * size;
+		int i = (int)x;
+		double f = x - i;
+
+		switch(mode) {
+			case NEAREST:
+				return table[1 + (int)Math.round(x) % size];
+			case LINEAR:
+				if(i >= size) i -= size;
+				return linear(i + 1, f);
+			default:
+				if(i >= size) i -= size;
+				return cubic(i + 1, f);
+		}
+	}
+
+	/**
+	 * Oscillator loop: fills OUT[off .. off+len) reading the table from PHASE, advancing
+	 * INCREMENT cycles per sample. Same contract as Synthesizer.renderBlock().
+	 * @return Phase after the last sample
+	 */
+	public double renderBlock(double[] out, int off, int len, double phase, double increment, Interpolation mode) {
+		int end = off + len;
+
+		switch(mode) {
+			case NEAREST:
+				for(int i = off; i < end; i++) {
+					out[i] = table[1 + (int)Math.round(phase * size) % size];
+					phase += increment;
+					if(phase >= 1.0) phase -= 1.0;
+				}
+				break;
+
+			case LINEAR:
+				for(int i = off; i < end; i++) {
+					double x = phase * size;
+					int k = (int)x;
+					if(k >= size) k -= size;
+					out[i] = linear(k + 1, x - k);
+					phase += increment;
+					if(phase >= 1.0) phase -= 1.0;
+				}
+				break;
+
+			default:
+				for(int i = off; i < end; i++) {
+					double x = phase * size;
+					int k = (int)x;
+					if(k >= size) k -= size;
+					out[i] = cubic(k + 1, x - k);
+					phase += increment;
+					if(phase >= 1.0) phase -= 1.0;
+				}
+		}
+
+		return phase;
+	}
+
+	private double linear(int k, double f) {
+		double y1 = table[k];
+		return y1 + f * (table[k + 1] - y1);
+	}
+
+	/**
+	 * Lagrange polynomial through points k-1, k, k+1, k+2, evaluated at k + f.
+	 * Coefficients are arranged so it's evaluated by Horner's rule.
+	 */
+	private double cubic(int k, double f) {
+		double y0 = table[k - 1], y1 = table[k], y2 = table[k + 1], y3 = table[k + 2];
+
+		double c1 = y2 - (1.0/3) * y0 - 0.5 * y1 - (1.0/6) * y3;
+		double c2 = 0.5 * (y0 + y2) - y1;
+		double c3 = (1.0/6) * (y3 - y0) + 0.5 * (y1 - y2);
+		return ((c3 * f + c2) * f + c1) * f + y1;
+	}
+
+	/**
+	 * Test driver: error bounds and speed of each interpolation against Math.sin.
+	 */
+	public static void main(String[] args) {
+
+		for(Interpolation mode: Interpolation.values()) {
+			double err = 0;
+			for(int i = 0; i < 1000000; i++) {
+				double phase = Math.random();
+				err = Math.max(err, Math.abs(SINE.lookup(phase, mode) - Math.sin(2 * Math.PI * phase)));
+			}
+			System.out.println(mode + ": max error " + err);
+		}
+
+		int n = 1 << 20, rounds = 50;
+		double[] out = new double[n];
+		double increment = 440.0 / 48000;
+		SineSynth exact = new SineSynth(48000);
+
+		for(int pass = 0; pass < 2; pass++) {
+			long t0 = System.nanoTime();
+			for(int r = 0; r < rounds; r++)
+				exact.renderBlock(out, 0, n, 0.0, increment);
+			long t1 = System.nanoTime();
+			System.out.println("Math.sin: " + (double)(t1 - t0) / ((long)n * rounds) + " ns/sample");
+
+			for(Interpolation mode: Interpolation.values()) {
+				t0 = System.nanoTime();
+				for(int r = 0; r < rounds; r++)
+					SINE.renderBlock(out, 0, n, 0.0, increment, mode);
+				t1 = System.nanoTime();
+				System.out.println(mode + ": " + (double)(t1 - t0) / ((long)n * rounds) + " ns/sample");
+			}
+		}
+	}
+}